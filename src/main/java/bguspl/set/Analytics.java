@@ -0,0 +1,225 @@
+package bguspl.set;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Player performance statistics of a table, computed online from the dealer's verdicts: the reaction time of every
+ * checked claim (from the player's first token, or from the end of its last freeze, to the verdict), the number of
+ * sets found, false claims and cancelled claims, and the time spent frozen.
+ * <p>
+ * Memory is constant: every player has a quantile sketch (a log-linear histogram) and counters for the whole game, and
+ * a ring of the same for the last few windows of config.analyticsWindowMillis, which are reused as time moves on. So
+ * rolling statistics are available without storing raw events, and the analytics can stay on for long games.
+ * Recording a verdict does not allocate. The dealer records; any thread may read.
+ */
+public class Analytics {
+
+    /**
+     * The outcome of a claim.
+     */
+    public enum Outcome { POINT, PENALTY, CANCELLED }
+
+    /**
+     * Statistics of a player (or a table) over a period of time.
+     */
+    public static final class Stats {
+
+        private final LatencyHistogram reactions = new LatencyHistogram();
+        private long points;
+        private long penalties;
+        private long cancelled;
+        private long frozenMillis;
+        private long periodMillis;
+
+        private void record(Outcome outcome, long reactionNanos, long freezeMillis) {
+            // a cancelled claim was never checked, so it has no reaction time
+            if (outcome == Outcome.CANCELLED) {
+                ++cancelled;
+                return;
+            }
+            reactions.record(reactionNanos);
+            if (outcome == Outcome.POINT) ++points;
+            else ++penalties;
+            frozenMillis += freezeMillis;
+        }
+
+        private void merge(Stats other) {
+            reactions.merge(other.reactions);
+            points += other.points;
+            penalties += other.penalties;
+            cancelled += other.cancelled;
+            frozenMillis += other.frozenMillis;
+        }
+
+        private void reset() {
+            reactions.reset();
+            points = penalties = cancelled = frozenMillis = 0;
+        }
+
+        /**
+         * @param percentile - the percentile (between 0 and 100).
+         * @return           - the reaction time of the claims at the given percentile, in milliseconds.
+         */
+        public double reactionMillis(double percentile) {
+            return reactions.percentile(percentile) / 1e6;
+        }
+
+        /**
+         * @return - the number of checked claims (points and penalties, not the cancelled claims).
+         */
+        public long claims() {
+            return reactions.count();
+        }
+
+        public long points() {
+            return points;
+        }
+
+        public long penalties() {
+            return penalties;
+        }
+
+        public long cancelled() {
+            return cancelled;
+        }
+
+        public long frozenMillis() {
+            return frozenMillis;
+        }
+
+        /**
+         * @return - the number of sets found per minute over the period.
+         */
+        public double setsPerMinute() {
+            return periodMillis <= 0 ? 0 : points * 60000.0 / periodMillis;
+        }
+
+        /**
+         * @return - the fraction of the checked claims (points and penalties) that were not a set.
+         */
+        public double falseClaimRatio() {
+            return points + penalties == 0 ? 0 : (double) penalties / (points + penalties);
+        }
+
+        /**
+         * @return - the fraction of the period spent frozen.
+         */
+        public double frozenRatio() {
+            return periodMillis <= 0 ? 0 : Math.min(1, (double) frozenMillis / periodMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d claims, %.1f sets/min, false claims %.0f%%, frozen %.0f%%, reaction p50 %.0f ms"
+                            + " p90 %.0f ms p99 %.0f ms", claims(), setsPerMinute(), 100 * falseClaimRatio(),
+                    100 * frozenRatio(), reactionMillis(50), reactionMillis(90), reactionMillis(99));
+        }
+    }
+
+    private final long start;
+    private final long windowMillis;
+
+    /**
+     * The statistics of every player since the start, and in the ring of windows (window w holds the statistics of
+     * window number epochs[player][w], counting from the start).
+     */
+    private final Stats[] total;
+    private final Stats[][] windows;
+    private final long[][] epochs;
+
+    /**
+     * @param players      - the number of players.
+     * @param windowMillis - the length of a window, in milliseconds.
+     * @param windows      - the number of windows kept.
+     * @param start        - the time the game started (in milliseconds).
+     */
+    public Analytics(int players, long windowMillis, int windows, long start) {
+        this.start = start;
+        this.windowMillis = windowMillis;
+        total = new Stats[players];
+        this.windows = new Stats[players][windows];
+        epochs = new long[players][windows];
+        for (int player = 0; player < players; ++player) {
+            total[player] = new Stats();
+            for (int w = 0; w < windows; ++w) {
+                this.windows[player][w] = new Stats();
+                epochs[player][w] = -1;
+            }
+        }
+    }
+
+    /**
+     * @param config - the game configuration.
+     * @param start  - the time the game started (in milliseconds).
+     * @return       - the analytics of a table, or null if they are disabled.
+     */
+    public static Analytics of(Config config, long start) {
+        if (config.analyticsWindowMillis <= 0 || config.analyticsWindows <= 0) return null;
+        return new Analytics(config.players, config.analyticsWindowMillis, config.analyticsWindows, start);
+    }
+
+    /**
+     * Records the dealer's verdict on a claim.
+     *
+     * @param player        - the player that claimed.
+     * @param outcome       - the verdict.
+     * @param reactionNanos - the time from the start of the claim to the verdict, in nanoseconds.
+     * @param freezeMillis  - the time the player is frozen for, in milliseconds.
+     * @param now           - the current time, in milliseconds.
+     */
+    public synchronized void verdict(int player, Outcome outcome, long reactionNanos, long freezeMillis, long now) {
+        long epoch = Math.max(0, now - start) / windowMillis;
+        int w = (int) (epoch % epochs[player].length);
+        Stats window = windows[player][w];
+        if (epochs[player][w] != epoch) {
+            window.reset();
+            epochs[player][w] = epoch;
+        }
+        window.record(outcome, reactionNanos, freezeMillis);
+        total[player].record(outcome, reactionNanos, freezeMillis);
+    }
+
+    /**
+     * @param player - a player id, or -1 for the whole table.
+     * @param now    - the current time, in milliseconds.
+     * @return       - the statistics since the start of the game.
+     */
+    public synchronized Stats total(int player, long now) {
+        Stats stats = new Stats();
+        for (int p = 0; p < total.length; ++p)
+            if (player < 0 || p == player)
+                stats.merge(total[p]);
+        stats.periodMillis = now - start;
+        return stats;
+    }
+
+    /**
+     * @param player - a player id, or -1 for the whole table.
+     * @param now    - the current time, in milliseconds.
+     * @return       - the statistics of the last windows (up to windows * windowMillis, including the current one).
+     */
+    public synchronized Stats recent(int player, long now) {
+        long epoch = Math.max(0, now - start) / windowMillis;
+        long first = Math.max(0, epoch - epochs[0].length + 1);
+        Stats stats = new Stats();
+        for (int p = 0; p < windows.length; ++p)
+            if (player < 0 || p == player)
+                for (int w = 0; w < windows[p].length; ++w)
+                    if (epochs[p][w] >= first && epochs[p][w] <= epoch)
+                        stats.merge(windows[p][w]);
+        stats.periodMillis = now - (start + first * windowMillis);
+        return stats;
+    }
+
+    /**
+     * Logs the statistics of the table and of every player.
+     *
+     * @param now - the current time, in milliseconds.
+     */
+    public void log(long now) {
+        Log.info("table: %s (last %d s: %s).", total(-1, now),
+                TimeUnit.MILLISECONDS.toSeconds(windowMillis * epochs[0].length), recent(-1, now));
+        for (int player = 0; player < total.length; ++player)
+            Log.info("player %d: %s.", player, total(player, now));
+    }
+}
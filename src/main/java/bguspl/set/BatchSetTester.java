@@ -0,0 +1,141 @@
+package bguspl.set;
+
+/**
+ * Tests many candidate sets at once (see Util.testSets).
+ * <p>
+ * Every card is encoded once as a one-hot code: config.featureSize bits per feature, with the bit of the feature's value
+ * set. For sets of 3 cards with codes a, b and c, every feature is all the same or all different exactly when
+ * (a ^ b ^ c) == (a | b | c), so a whole candidate is tested with a few long operations and no branches.
+ * The candidates are processed in blocks of 64: their codes are gathered into one array per position in the set
+ * (structure of arrays), and the test runs as a simple loop over those arrays, which the JIT can vectorize.
+ */
+public class BatchSetTester {
+
+    /**
+     * The number of candidates in a block (one word of the result bitmap).
+     */
+    private static final int BLOCK = Long.SIZE;
+
+    /**
+     * The number of features on the cards and the number of cards in a legal set.
+     */
+    private final int featureCount;
+    private final int setSize;
+
+    /**
+     * Feature lookup tables (for variants whose codes do not fit a long).
+     */
+    private final SetIndex index;
+
+    /**
+     * The one-hot code of every card (null if featureCount * setSize > 64).
+     */
+    private final long[] codes;
+
+    /**
+     * A bitmask of setSize bits.
+     */
+    private final long fieldMask;
+
+    /**
+     * The codes of the cards of a block of candidates, per position in the set (per thread, so the tester can be shared).
+     */
+    private final ThreadLocal<long[][]> blocks;
+
+    public BatchSetTester(Config config, SetIndex index) {
+        this.featureCount = config.featureCount;
+        this.setSize = config.featureSize;
+        this.index = index;
+        this.fieldMask = setSize >= Long.SIZE ? -1L : (1L << setSize) - 1;
+
+        if ((long) featureCount * setSize <= Long.SIZE) {
+            codes = new long[config.deckSize];
+            for (int card = 0; card < codes.length; ++card)
+                for (int i = 0; i < featureCount; ++i)
+                    codes[card] |= (1L << index.feature(card, i)) << (i * setSize);
+        }
+        else
+            codes = null;
+
+        blocks = ThreadLocal.withInitial(() -> new long[setSize][BLOCK]);
+    }
+
+    /**
+     * Tests a batch of candidate sets.
+     *
+     * @param cards   - the candidates, one after the other (config.featureSize card ids each).
+     * @param results - the result bitmap: bit i % 64 of results[i / 64] is set iff candidate i is a legal set. Must have
+     *                  room for all the candidates.
+     */
+    public void testSets(int[] cards, long[] results) {
+        int candidates = cards.length / setSize;
+        if (codes == null) {
+            for (int c = 0; c < candidates; ++c)
+                if (testSet(cards, c * setSize))
+                    results[c / BLOCK] |= 1L << (c % BLOCK);
+                else
+                    results[c / BLOCK] &= ~(1L << (c % BLOCK));
+            return;
+        }
+
+        long[][] block = blocks.get();
+        for (int start = 0; start < candidates; start += BLOCK) {
+            int length = Math.min(BLOCK, candidates - start);
+
+            // gather the codes into one array per position in the set
+            for (int j = 0; j < setSize; ++j) {
+                long[] column = block[j];
+                for (int c = 0, offset = start * setSize + j; c < length; ++c, offset += setSize)
+                    column[c] = codes[cards[offset]];
+            }
+            results[start / BLOCK] = setSize == 3 ? testTriples(block, length) : testColumns(block, length);
+        }
+    }
+
+    /**
+     * Tests a block of candidate sets of 3 cards.
+     */
+    private static long testTriples(long[][] block, int length) {
+        long[] first = block[0], second = block[1], third = block[2];
+        long bits = 0;
+        for (int c = 0; c < length; ++c) {
+            long a = first[c], b = second[c], z = third[c];
+            long legal = ((a ^ b ^ z) == (a | b | z)) ? 1 : 0;
+            bits |= legal << c;
+        }
+        return bits;
+    }
+
+    /**
+     * Tests a block of candidate sets of any size: per feature, the values must be one or setSize distinct values.
+     */
+    private long testColumns(long[][] block, int length) {
+        long bits = 0;
+        for (int c = 0; c < length; ++c) {
+            long seen = 0;
+            for (long[] column : block)
+                seen |= column[c];
+            boolean legal = true;
+            for (int i = 0; i < featureCount && legal; ++i) {
+                int distinct = Long.bitCount((seen >>> (i * setSize)) & fieldMask);
+                legal = distinct == 1 || distinct == setSize;
+            }
+            if (legal) bits |= 1L << c;
+        }
+        return bits;
+    }
+
+    /**
+     * Tests a single candidate using the feature tables.
+     */
+    private boolean testSet(int[] cards, int offset) {
+        for (int i = 0; i < featureCount; ++i) {
+            long seen = 0;
+            for (int j = 0; j < setSize; ++j)
+                seen |= 1L << index.feature(cards[offset + j], i);
+            int distinct = Long.bitCount(seen);
+            if (distinct != 1 && distinct != setSize) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package bguspl.set;
+
+/**
+ * A user interface that forwards every call to several user interfaces (e.g. the local window and the remote players).
+ */
+public class CompositeUserInterface implements UserInterface {
+
+    private final UserInterface[] interfaces;
+
+    public CompositeUserInterface(UserInterface... interfaces) {
+        this.interfaces = interfaces;
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        for (UserInterface ui : interfaces) ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        for (UserInterface ui : interfaces) ui.removeCard(slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        for (UserInterface ui : interfaces) ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        for (UserInterface ui : interfaces) ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        for (UserInterface ui : interfaces) ui.setScore(player, score);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        for (UserInterface ui : interfaces) ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        for (UserInterface ui : interfaces) ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        for (UserInterface ui : interfaces) ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        for (UserInterface ui : interfaces) ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        for (UserInterface ui : interfaces) ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        for (UserInterface ui : interfaces) ui.announceWinner(players);
+    }
+}
@@ -73,6 +73,91 @@ public class Config {
      */
     public final long tableDelayMillis;
 
+    /**
+     * The deck size from which the dealer tracks the sets in the deck using the precomputed set catalog
+     */
+    public final int setCatalogMinDeckSize;
+
+    /**
+     * The directory in which set catalogs are cached
+     */
+    public final String setCatalogDirectory;
+
+    /**
+     * Whether the dealer picks the cards it deals so that the table always contains a set (when the deck allows it)
+     */
+    public final boolean guaranteedSets;
+
+    /**
+     * Whether the dealer reshuffles by swapping only as many cards as needed (instead of returning the whole table)
+     */
+    public final boolean minimalReshuffle;
+
+    /**
+     * The number of cards swapped in a minimal reshuffle when the table already contains a set
+     */
+    public final int reshuffleRefreshCards;
+
+    /**
+     * The median number of milliseconds a computer player takes to react to the table
+     */
+    public final long computerReactionMillis;
+
+    /**
+     * The spread of the computer players' reaction times (the sigma of a log-normal distribution, 0 for a fixed time)
+     */
+    public final double computerReactionSpread;
+
+    /**
+     * The probability that a computer player misreads the table and claims a random (most likely illegal) combination
+     */
+    public final double computerMissProbability;
+
+    /**
+     * The maximum number of candidate sets a computer player checks before giving up on a decision
+     */
+    public final int computerMaxChecks;
+
+    /**
+     * The TCP port on which remote players can join the game (-1 if remote players are disabled).
+     */
+    public final int serverPort;
+
+    /**
+     * How the players' claims are handed over to the dealer (Monitor, Parking or Ring, see ClaimHandoff).
+     */
+    public final String claimHandoff;
+
+    /**
+     * The lowest level of the messages written to the console (DEBUG, INFO, HINT, WARNING or OFF).
+     */
+    public final Log.Level logLevel;
+
+    /**
+     * The directory in which finished games are recorded (empty if they are not recorded, see GameHistory).
+     */
+    public final String historyDirectory;
+
+    /**
+     * The number of milliseconds between checkpoints of the game, and the file they are written to (a game that did
+     * not finish is resumed from it). Checkpoints are disabled if either is not set.
+     */
+    public final long checkpointMillis;
+    public final String checkpointFile;
+
+    /**
+     * The length of a window of the players' rolling statistics (in milliseconds), and the number of windows kept (see
+     * Analytics). The statistics are disabled if either is 0.
+     */
+    public final long analyticsWindowMillis;
+    public final int analyticsWindows;
+
+    /**
+     * The file through which bot processes on this machine play the computer players (see SharedMemoryBots). If empty
+     * the computer players are played by the game itself.
+     */
+    public final String botChannel;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -140,12 +225,12 @@ public class Config {
         try (InputStream is = Files.newInputStream(Paths.get(filename))) {
             properties.load(is);
         } catch (IOException e) {
-            System.out.printf("Info: cannot read configuration file %s trying from resources.%n", filename);
+            Log.info("cannot read configuration file %s trying from resources.", filename);
             try (InputStream is = Config.class.getClassLoader().getResourceAsStream(filename)) {
                 properties.load(is);
-                System.out.printf("Info: configuration file was loaded from resources directory.%n", filename);
+                Log.info("configuration file was loaded from resources directory.");
             } catch (IOException | InvalidPathException ex) {
-                System.out.println("Warning: cannot read config file from the resources directory either. Using defaults.");
+                Log.warning("cannot read config file from the resources directory either. Using defaults.");
             }
         }
 
@@ -175,6 +260,25 @@ public class Config {
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
+        setCatalogMinDeckSize = Integer.parseInt(properties.getProperty("SetCatalogMinDeckSize", "729"));
+        setCatalogDirectory = properties.getProperty("SetCatalogDirectory",
+                Paths.get(System.getProperty("java.io.tmpdir"), "set-catalog").toString());
+        guaranteedSets = Boolean.parseBoolean(properties.getProperty("GuaranteedSetDealing", "False"));
+        minimalReshuffle = Boolean.parseBoolean(properties.getProperty("MinimalReshuffle", "False"));
+        reshuffleRefreshCards = Integer.parseInt(properties.getProperty("ReshuffleRefreshCards", "3"));
+        computerReactionMillis = (long) (Double.parseDouble(properties.getProperty("ComputerReactionSeconds", "1")) * 1000.0);
+        computerReactionSpread = Double.parseDouble(properties.getProperty("ComputerReactionSpread", "0.5"));
+        computerMissProbability = Double.parseDouble(properties.getProperty("ComputerMissProbability", "0.1"));
+        computerMaxChecks = Integer.parseInt(properties.getProperty("ComputerMaxChecks", "1000"));
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "-1"));
+        claimHandoff = properties.getProperty("ClaimHandoff", "Parking").trim();
+        logLevel = Log.Level.valueOf(properties.getProperty("LogLevel", "Info").trim().toUpperCase());
+        historyDirectory = properties.getProperty("HistoryDirectory", "").trim();
+        checkpointMillis = (long) (Double.parseDouble(properties.getProperty("CheckpointSeconds", "0")) * 1000.0);
+        checkpointFile = properties.getProperty("CheckpointFile", "").trim();
+        analyticsWindowMillis = (long) (Double.parseDouble(properties.getProperty("AnalyticsWindowSeconds", "10")) * 1000.0);
+        analyticsWindows = Integer.parseInt(properties.getProperty("AnalyticsWindows", "6"));
+        botChannel = properties.getProperty("BotChannel", "").trim();
 
         // ui data
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
@@ -197,7 +301,7 @@ public class Config {
             if (playerKeysString.length() > 0) {
                 String[] codes = playerKeysString.split(",");
                 if (codes.length != tableSize)
-                    System.out.printf("Warning: player %d keys (%d) mismatch table size (%d).%n", i + 1, codes.length, tableSize);
+                    Log.warning("player %d keys (%d) mismatch table size (%d).", i + 1, codes.length, tableSize);
                 for (int j = 0; j < Math.min(codes.length, tableSize); ++j) // parse the key codes string
                     playerKeys[i][j] = Integer.parseInt(codes[j]);
             }
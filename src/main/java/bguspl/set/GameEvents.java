@@ -0,0 +1,133 @@
+package bguspl.set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the game's key operations, to profile games and correlate them with the JVM's own
+ * events (garbage collection, locks, ...) in Mission Control.
+ * <p>
+ * The events are disabled by default and cost a check of a flag when they are. The set-game.jfc settings profile (in
+ * the resources) enables them together with a low overhead selection of JVM events:
+ * <pre>
+ *   java -XX:StartFlightRecording=settings=set-game.jfc,filename=game.jfr -jar Set_Card_Game.jar
+ * </pre>
+ * An event is created on the stack and committed only if it should be (see Event.shouldCommit), so when the recorder
+ * is off the JIT compiler removes the allocation.
+ */
+public final class GameEvents {
+
+    private GameEvents() {}
+
+    @Name("bguspl.set.ClaimEnqueued")
+    @Label("Claim Enqueued")
+    @Description("A player claimed a set and waits for the dealer's verdict")
+    @Category({"Set Game", "Dealer"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class ClaimEnqueued extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Waiting Claims")
+        @Description("The number of claims in the dealer's queue, including this one")
+        public int queued;
+    }
+
+    @Name("bguspl.set.Verdict")
+    @Label("Verdict")
+    @Description("The dealer checked a claim (the duration is the time it took to check it and update the table)")
+    @Category({"Set Game", "Dealer"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Verdict extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Outcome")
+        @Description("point, penalty or cancelled (the claimed tokens were removed before the dealer checked them)")
+        public String outcome;
+    }
+
+    @Name("bguspl.set.CardPlaced")
+    @Label("Card Placed")
+    @Category({"Set Game", "Table"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class CardPlaced extends Event {
+
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.CardRemoved")
+    @Label("Card Removed")
+    @Category({"Set Game", "Table"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class CardRemoved extends Event {
+
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.Freeze")
+    @Label("Freeze")
+    @Description("A player was frozen after a point or a penalty")
+    @Category({"Set Game", "Player"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Freeze extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Freeze")
+        @Timespan(Timespan.MILLISECONDS)
+        public long millis;
+    }
+
+    @Name("bguspl.set.Reshuffle")
+    @Label("Reshuffle")
+    @Description("The dealer returned cards on the table to the deck (all of them, or the ones a minimal reshuffle swaps)")
+    @Category({"Set Game", "Dealer"})
+    @Enabled(false)
+    public static final class Reshuffle extends Event {
+
+        @Label("Cards")
+        @Description("The number of cards returned to the deck")
+        public int cards;
+    }
+
+    @Name("bguspl.set.FindSets")
+    @Label("Find Sets")
+    @Description("A search for sets among a collection of cards")
+    @Category({"Set Game", "Util"})
+    @Enabled(false)
+    public static final class FindSets extends Event {
+
+        @Label("Operation")
+        @Description("findSets, hasSet or countSets")
+        public String operation;
+
+        @Label("Deck Size")
+        public int deckSize;
+
+        @Label("Sets Found")
+        public int found;
+    }
+}
@@ -0,0 +1,512 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The history of finished games: an append-only, columnar store in a local directory, queried in place.
+ * <p>
+ * Games are stored in two tables, each a series of memory-mapped segment files with a fixed number of rows. A segment
+ * holds every column of its rows contiguously, so an aggregate over a column reads only that column's pages, and
+ * nothing is loaded onto the heap (the operating system caches the pages).
+ * <pre>
+ *   games-N.seg   - start (long, epoch millis), duration (long, millis), config (int), players (int),
+ *                   first player row (long)
+ *   players-N.seg - game (long), player (int), score (int), penalties (int), human (byte), winner (byte)
+ *   configs.txt   - the configurations, one per line (a game's config column is the line number)
+ * </pre>
+ * A segment starts with a header: magic, version, capacity and the number of rows written. The rows of a game are
+ * written before the game's row, and a row is visible only once the header counts it, so a crash leaves at most
+ * player rows of no game, which are dropped when the history is opened (before the next game could reuse their id).
+ * The dealer records games in the background (see appendLater), so it never waits for the disk.
+ * <p>
+ * A directory is written by a single process. Usage: GameHistory [directory=history] prints a summary.
+ */
+public class GameHistory {
+
+    private static final int MAGIC = 0x53455448; // "SETH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int ROWS_OFFSET = 12;
+
+    /**
+     * The number of rows in a segment of each table.
+     */
+    private static final int GAME_ROWS = 1 << 16;
+    private static final int PLAYER_ROWS = 1 << 18;
+
+    /**
+     * The columns of the tables (widths in bytes).
+     */
+    private static final int[] GAME_COLUMNS = {8, 8, 4, 4, 8};
+    private static final int START = 0, DURATION = 1, CONFIG = 2, PLAYERS = 3, FIRST_PLAYER = 4;
+    private static final int[] PLAYER_COLUMNS = {8, 4, 4, 4, 1, 1};
+    private static final int GAME = 0, PLAYER = 1, SCORE = 2, PENALTIES = 3, HUMAN = 4, WINNER = 5;
+
+    /**
+     * The histories already opened in this process, by directory.
+     */
+    private static final Map<String, GameHistory> opened = new HashMap<>();
+
+    /**
+     * Writes the games recorded with appendLater (a single thread, which ends when idle and is not a daemon, so the
+     * last game is written before the process exits).
+     */
+    private static ExecutorService writer;
+
+    private final Path directory;
+    private final Table games;
+    private final Table players;
+
+    /**
+     * The configurations of the games and their ids.
+     */
+    private final List<String> configs = new ArrayList<>();
+    private final Map<String, Integer> configIds = new HashMap<>();
+
+    /**
+     * @param directory  - the directory of the history.
+     * @param gameRows   - the number of rows in a segment of the games table.
+     * @param playerRows - the number of rows in a segment of the players table.
+     */
+    GameHistory(Path directory, int gameRows, int playerRows) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        games = new Table("games", gameRows, GAME_COLUMNS);
+        players = new Table("players", playerRows, PLAYER_COLUMNS);
+        players.truncate(playerRowsOfGames());
+        Path file = directory.resolve("configs.txt");
+        if (Files.exists(file))
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+                if (!line.isEmpty()) {
+                    configIds.put(line, configs.size());
+                    configs.add(line);
+                }
+    }
+
+    /**
+     * Returns the history the config's games are recorded in.
+     *
+     * @param config - the game configuration.
+     * @return       - the history, or null if games are not recorded (or the directory cannot be used).
+     */
+    public static GameHistory of(Config config) {
+        if (config.historyDirectory.isEmpty()) return null;
+        try {
+            return open(Paths.get(config.historyDirectory));
+        } catch (IOException e) {
+            Log.warning("cannot record the game history in %s (%s).", config.historyDirectory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens (or creates) a history.
+     *
+     * @param directory - the directory of the history.
+     * @return          - the history.
+     */
+    public static synchronized GameHistory open(Path directory) throws IOException {
+        String key = directory.toAbsolutePath().normalize().toString();
+        GameHistory history = opened.get(key);
+        if (history == null) {
+            history = new GameHistory(directory, GAME_ROWS, PLAYER_ROWS);
+            opened.put(key, history);
+        }
+        return history;
+    }
+
+    /**
+     * Records a finished game.
+     *
+     * @param config    - the game configuration.
+     * @param start     - the time the game started (epoch milliseconds).
+     * @param duration  - the length of the game in milliseconds.
+     * @param scores    - the score of every player.
+     * @param penalties - the number of penalties of every player.
+     * @param winners   - the ids of the winners.
+     */
+    public synchronized void append(Config config, long start, long duration, int[] scores, int[] penalties,
+                                    int[] winners) throws IOException {
+        int configId = configId(signature(config));
+        long gameRow = games.rows();
+        long firstPlayer = players.rows();
+        for (int player = 0; player < scores.length; ++player) {
+            boolean won = false;
+            for (int winner : winners)
+                won |= winner == player;
+            Segment segment = players.appendable();
+            int row = segment.written++;
+            segment.putLong(GAME, row, gameRow);
+            segment.putInt(PLAYER, row, player);
+            segment.putInt(SCORE, row, scores[player]);
+            segment.putInt(PENALTIES, row, penalties[player]);
+            segment.putByte(HUMAN, row, player < config.humanPlayers ? 1 : 0);
+            segment.putByte(WINNER, row, won ? 1 : 0);
+        }
+        players.commit();
+
+        Segment segment = games.appendable();
+        int row = segment.written++;
+        segment.putLong(START, row, start);
+        segment.putLong(DURATION, row, duration);
+        segment.putInt(CONFIG, row, configId);
+        segment.putInt(PLAYERS, row, scores.length);
+        segment.putLong(FIRST_PLAYER, row, firstPlayer);
+        games.commit();
+    }
+
+    /**
+     * Records a finished game in the background (see append).
+     */
+    public void appendLater(Config config, long start, long duration, int[] scores, int[] penalties, int[] winners) {
+        writer().execute(() -> {
+            try {
+                append(config, start, duration, scores, penalties, winners);
+            } catch (IOException e) {
+                Log.warning("cannot record the game (%s).", e);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService writer() {
+        if (writer == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    task -> new Thread(task, "history"));
+            executor.allowCoreThreadTimeOut(true);
+            writer = executor;
+        }
+        return writer;
+    }
+
+    /**
+     * @return - the number of player rows of the committed games.
+     */
+    private long playerRowsOfGames() {
+        long last = games.rows() - 1;
+        if (last < 0) return 0;
+        Segment segment = games.segment(last);
+        int row = (int) (last % games.capacity);
+        return segment.getLong(FIRST_PLAYER, row) + segment.getInt(PLAYERS, row);
+    }
+
+    /**
+     * @return - the number of games recorded.
+     */
+    public synchronized long games() {
+        return games.rows();
+    }
+
+    /**
+     * @return - the average length of a game in milliseconds (0 if there are none).
+     */
+    public synchronized double averageDurationMillis() {
+        long count = 0, total = 0;
+        for (Segment segment : games.segments) {
+            int rows = segment.rows();
+            for (int row = 0; row < rows; ++row)
+                total += segment.getLong(DURATION, row);
+            count += rows;
+        }
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @param player - the id of a player (the seat, e.g. 0 for the first player).
+     * @return       - the fraction of the games with this player that the player won (ties count as wins).
+     */
+    public synchronized double winRate(int player) {
+        long count = 0, wins = 0, committed = games.rows();
+        for (Segment segment : players.segments) {
+            int rows = segment.rows();
+            for (int row = 0; row < rows; ++row)
+                if (segment.getInt(PLAYER, row) == player && segment.getLong(GAME, row) < committed) {
+                    ++count;
+                    wins += segment.getByte(WINNER, row);
+                }
+        }
+        return count == 0 ? 0 : (double) wins / count;
+    }
+
+    /**
+     * @param human - true for human players, false for computer players.
+     * @return      - the fraction of the human (or computer) players' games that they won (ties count as wins).
+     */
+    public synchronized double winRate(boolean human) {
+        long count = 0, wins = 0, committed = games.rows();
+        int kind = human ? 1 : 0;
+        for (Segment segment : players.segments) {
+            int rows = segment.rows();
+            for (int row = 0; row < rows; ++row)
+                if (segment.getByte(HUMAN, row) == kind && segment.getLong(GAME, row) < committed) {
+                    ++count;
+                    wins += segment.getByte(WINNER, row);
+                }
+        }
+        return count == 0 ? 0 : (double) wins / count;
+    }
+
+    /**
+     * Aggregates of the games of a configuration.
+     */
+    public static class Stats {
+
+        private long games, duration, playerRows, score, penalties;
+
+        public long games() {
+            return games;
+        }
+
+        public double averageDurationMillis() {
+            return games == 0 ? 0 : (double) duration / games;
+        }
+
+        public double averageScore() {
+            return playerRows == 0 ? 0 : (double) score / playerRows;
+        }
+
+        public double averagePenalties() {
+            return playerRows == 0 ? 0 : (double) penalties / playerRows;
+        }
+    }
+
+    /**
+     * @return - the aggregates of every configuration, by configuration (in the order they were first recorded).
+     */
+    public synchronized Map<String, Stats> statsByConfig() {
+        Stats[] stats = new Stats[configs.size()];
+        for (int i = 0; i < stats.length; ++i)
+            stats[i] = new Stats();
+
+        for (Segment segment : games.segments) {
+            int rows = segment.rows();
+            for (int row = 0; row < rows; ++row) {
+                Stats config = stats[segment.getInt(CONFIG, row)];
+                ++config.games;
+                config.duration += segment.getLong(DURATION, row);
+            }
+        }
+        long committed = games.rows();
+        for (Segment segment : players.segments) {
+            int rows = segment.rows();
+            for (int row = 0; row < rows; ++row) {
+                long game = segment.getLong(GAME, row);
+                if (game >= committed) continue;
+                Stats config = stats[games.segment(game).getInt(CONFIG, (int) (game % games.capacity))];
+                ++config.playerRows;
+                config.score += segment.getInt(SCORE, row);
+                config.penalties += segment.getInt(PENALTIES, row);
+            }
+        }
+
+        Map<String, Stats> result = new LinkedHashMap<>();
+        for (int i = 0; i < stats.length; ++i)
+            result.put(configs.get(i), stats[i]);
+        return result;
+    }
+
+    /**
+     * @return - the configuration values that make games comparable.
+     */
+    static String signature(Config config) {
+        return String.format("features=%dx%d players=%d+%d table=%d turn=%dms freeze=%d/%dms",
+                config.featureCount, config.featureSize, config.humanPlayers, config.computerPlayers,
+                config.tableSize, config.turnTimeoutMillis, config.pointFreezeMillis, config.penaltyFreezeMillis);
+    }
+
+    private int configId(String signature) throws IOException {
+        Integer id = configIds.get(signature);
+        if (id == null) {
+            id = configs.size();
+            // synced before any game row refers to the line, so a committed game never points past the file's end
+            Files.write(directory.resolve("configs.txt"), (signature + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+            configs.add(signature);
+            configIds.put(signature, id);
+        }
+        return id;
+    }
+
+    /**
+     * A table: its segments, in order.
+     */
+    private final class Table {
+
+        private final String name;
+        private final int capacity;
+        private final int[] columns;
+        private final List<Segment> segments = new ArrayList<>();
+
+        private Table(String name, int capacity, int[] columns) throws IOException {
+            this.name = name;
+            this.capacity = capacity;
+            this.columns = columns;
+            while (Files.exists(file(segments.size())))
+                segments.add(new Segment(file(segments.size()), capacity, columns));
+        }
+
+        private Path file(int index) {
+            return directory.resolve(String.format("%s-%06d.seg", name, index));
+        }
+
+        private long rows() {
+            return segments.isEmpty() ? 0 : (long) (segments.size() - 1) * capacity + segments.get(segments.size() - 1).rows();
+        }
+
+        private Segment segment(long row) {
+            return segments.get((int) (row / capacity));
+        }
+
+        /**
+         * @return - the last segment, or a new one if it is full.
+         */
+        private Segment appendable() throws IOException {
+            if (segments.isEmpty() || segments.get(segments.size() - 1).written == capacity)
+                segments.add(new Segment(file(segments.size()), capacity, columns));
+            return segments.get(segments.size() - 1);
+        }
+
+        /**
+         * Drops the rows past the given number of rows.
+         *
+         * @param rows - the number of rows to keep.
+         */
+        private void truncate(long rows) throws IOException {
+            while (rows() > rows) {
+                int last = segments.size() - 1;
+                long first = (long) last * capacity;
+                if (rows > first || last == 0) {
+                    segments.get(last).written = (int) (rows - first);
+                    segments.get(last).commit();
+                } else {
+                    segments.remove(last);
+                    Files.delete(file(last));
+                }
+            }
+        }
+
+        /**
+         * Makes the rows written since the last commit visible.
+         */
+        private void commit() {
+            for (int i = segments.size() - 1; i >= 0 && segments.get(i).rows() != segments.get(i).written; --i)
+                segments.get(i).commit();
+        }
+    }
+
+    /**
+     * A memory-mapped segment file.
+     */
+    private static final class Segment {
+
+        private final MappedByteBuffer buffer;
+        private final int[] offsets;
+        private final int[] widths;
+
+        /**
+         * The number of rows written (including the rows not committed yet).
+         */
+        private int written;
+
+        private Segment(Path file, int capacity, int[] widths) throws IOException {
+            this.widths = widths;
+            offsets = new int[widths.length];
+            int size = HEADER_BYTES;
+            for (int column = 0; column < widths.length; ++column) {
+                offsets[column] = size;
+                size += capacity * widths[column];
+            }
+            boolean created = !Files.exists(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            if (created || buffer.getInt(0) == 0) {
+                buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(ROWS_OFFSET, 0);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity) {
+                throw new IOException("not a game history segment: " + file);
+            }
+            written = rows();
+        }
+
+        private int rows() {
+            return buffer.getInt(ROWS_OFFSET);
+        }
+
+        /**
+         * Makes the rows written so far durable, then visible.
+         */
+        private void commit() {
+            buffer.force();
+            buffer.putInt(ROWS_OFFSET, written);
+            buffer.force();
+        }
+
+        private long getLong(int column, int row) {
+            return buffer.getLong(offsets[column] + row * widths[column]);
+        }
+
+        private int getInt(int column, int row) {
+            return buffer.getInt(offsets[column] + row * widths[column]);
+        }
+
+        private byte getByte(int column, int row) {
+            return buffer.get(offsets[column] + row * widths[column]);
+        }
+
+        private void putLong(int column, int row, long value) {
+            buffer.putLong(offsets[column] + row * widths[column], value);
+        }
+
+        private void putInt(int column, int row, int value) {
+            buffer.putInt(offsets[column] + row * widths[column], value);
+        }
+
+        private void putByte(int column, int row, int value) {
+            buffer.put(offsets[column] + row * widths[column], (byte) value);
+        }
+    }
+
+    /**
+     * Prints a summary of a history.
+     *
+     * @param args - the history directory (defaults to history).
+     */
+    public static void main(String[] args) throws IOException {
+        GameHistory history = open(Paths.get(args.length > 0 ? args[0] : "history"));
+        System.out.printf("Info: %d games, %.1f s on average.%n", history.games(), history.averageDurationMillis() / 1000);
+        System.out.printf("Info: win rate of human players %.3f, of computer players %.3f.%n",
+                history.winRate(true), history.winRate(false));
+        int seats = 0;
+        for (String config : history.configs)
+            seats = Math.max(seats, seatsOf(config));
+        for (int player = 0; player < seats; ++player)
+            System.out.printf("Info: win rate of player %d %.3f.%n", player + 1, history.winRate(player));
+        for (Map.Entry<String, Stats> entry : history.statsByConfig().entrySet()) {
+            Stats stats = entry.getValue();
+            System.out.printf("Info: %s: %d games, %.1f s, score %.2f, penalties %.2f on average.%n", entry.getKey(),
+                    stats.games(), stats.averageDurationMillis() / 1000, stats.averageScore(), stats.averagePenalties());
+        }
+    }
+
+    private static int seatsOf(String signature) {
+        int start = signature.indexOf("players=") + "players=".length();
+        String[] counts = signature.substring(start, signature.indexOf(' ', start)).split("\\+");
+        return Integer.parseInt(counts[0]) + Integer.parseInt(counts[1]);
+    }
+}
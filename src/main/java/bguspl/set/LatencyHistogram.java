@@ -0,0 +1,99 @@
+package bguspl.set;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies (in nanoseconds) with log-linear buckets: every power of two is split into 32 buckets, so
+ * percentiles are accurate to about 3% over the whole range of a long, with a fixed, small memory footprint.
+ * Recording does not allocate. Histograms are not thread safe: every thread records into its own and they are merged.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits of precision below the highest bit of a value.
+     */
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
+    private double sum;
+
+    /**
+     * @param value - a latency in nanoseconds (negative values count as 0).
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        ++counts[index(value)];
+        ++count;
+        max = Math.max(max, value);
+        sum += value;
+    }
+
+    /**
+     * Adds the values recorded in another histogram to this one.
+     *
+     * @param other - the other histogram.
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; ++i)
+            counts[i] += other.counts[i];
+        count += other.count;
+        max = Math.max(max, other.max);
+        sum += other.sum;
+    }
+
+    /**
+     * Removes all the recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+        sum = 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param percentile - the percentile (between 0 and 100).
+     * @return           - the smallest value such that at least the given percentage of the values are not above it
+     *                     (up to the precision of the buckets).
+     */
+    public long percentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(max, lowerBound(i + 1) - 1);
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int msb = index / SUB_BUCKETS + SUB_BITS - 1;
+        if (msb >= 63) return Long.MAX_VALUE;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (msb - SUB_BITS);
+    }
+}
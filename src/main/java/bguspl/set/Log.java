@@ -0,0 +1,265 @@
+package bguspl.set;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The game's log: messages are written to the console by a background thread, so logging never blocks the dealer or
+ * a player on console I/O.
+ * <p>
+ * Every logging thread has its own ring buffer, written only by that thread and drained by the writer thread (no
+ * locks). A message is the format string and its arguments; it is formatted by the writer thread, so a thread pays for
+ * formatting only its arguments' boxing. Messages below the level are dropped by a single comparison, before anything
+ * is captured. If a thread logs faster than the console can keep up and its buffer fills, its messages are dropped
+ * (and counted) rather than waited for.
+ * <p>
+ * The messages of a thread are written in order. The messages of different threads are written in the order of a
+ * global sequence number taken when they are logged.
+ */
+public final class Log {
+
+    /**
+     * The severity of a message, and the prefix it is printed with.
+     */
+    public enum Level {
+        DEBUG("Debug"), INFO("Info"), HINT("Hint"), WARNING("Warning"), OFF("");
+
+        private final String prefix;
+
+        Level(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * The number of messages a thread can have waiting to be written.
+     */
+    static final int RING_SIZE = 1024;
+
+    /**
+     * The lowest level that is written.
+     */
+    private static volatile Level level = Level.INFO;
+
+    /**
+     * The stream the messages are written to.
+     */
+    private static volatile PrintStream out = System.out;
+
+    /**
+     * The ring buffers of the threads that logged (a ring is removed once its thread died and it was drained).
+     */
+    private static final List<Ring> rings = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Ring> ring = ThreadLocal.withInitial(Log::register);
+
+    /**
+     * The order of the messages across threads, and the number of messages dropped because a ring was full.
+     */
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The writer thread (started by the first message).
+     */
+    private static volatile Thread writer;
+
+    /**
+     * The sequence number of the last message written.
+     */
+    private static volatile long written;
+
+    private Log() {}
+
+    public static Level level() {
+        return level;
+    }
+
+    /**
+     * @param level - the lowest level to write (OFF to write nothing).
+     */
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    /**
+     * @param out - the stream to write the messages to.
+     */
+    public static void setOutput(PrintStream out) {
+        flush();
+        Log.out = out;
+    }
+
+    /**
+     * @return - true iff messages of the given level are written.
+     */
+    public static boolean enabled(Level level) {
+        return level.compareTo(Log.level) >= 0 && level != Level.OFF;
+    }
+
+    public static void debug(String format) { log(Level.DEBUG, format, null, null, null, null); }
+    public static void debug(String format, Object a) { log(Level.DEBUG, format, a, null, null, null); }
+    public static void debug(String format, Object a, Object b) { log(Level.DEBUG, format, a, b, null, null); }
+
+    public static void info(String format) { log(Level.INFO, format, null, null, null, null); }
+    public static void info(String format, Object a) { log(Level.INFO, format, a, null, null, null); }
+    public static void info(String format, Object a, Object b) { log(Level.INFO, format, a, b, null, null); }
+    public static void info(String format, Object a, Object b, Object c) { log(Level.INFO, format, a, b, c, null); }
+
+    public static void hint(String format, Object a, Object b) { log(Level.HINT, format, a, b, null, null); }
+
+    public static void warning(String format) { log(Level.WARNING, format, null, null, null, null); }
+    public static void warning(String format, Object a) { log(Level.WARNING, format, a, null, null, null); }
+    public static void warning(String format, Object a, Object b) { log(Level.WARNING, format, a, b, null, null); }
+    public static void warning(String format, Object a, Object b, Object c) { log(Level.WARNING, format, a, b, c, null); }
+
+    /**
+     * Logs a message with more than three arguments.
+     *
+     * @param level  - the message level.
+     * @param format - the message format (see String.format).
+     * @param args   - the arguments.
+     */
+    public static void log(Level level, String format, Object... args) {
+        log(level, format, null, null, null, args);
+    }
+
+    private static void log(Level level, String format, Object a, Object b, Object c, Object[] args) {
+        if (!enabled(level)) return;
+        if (writer == null) start();
+        if (!ring.get().offer(level, format, a, b, c, args))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * Waits until the messages logged so far are written (for up to a second).
+     */
+    public static void flush() {
+        if (writer == null) return;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long last = sequence.get();
+        while (System.nanoTime() < deadline && written < last) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static Ring register() {
+        Ring ring = new Ring(Thread.currentThread());
+        rings.add(ring);
+        return ring;
+    }
+
+    private static synchronized void start() {
+        if (writer != null) return;
+        Thread thread = new Thread(Log::write, "log");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    /**
+     * The writer thread: repeatedly writes the waiting messages in the order of their sequence numbers, and sleeps a
+     * little when there are none.
+     */
+    private static void write() {
+        StringBuilder line = new StringBuilder();
+        long reportedDrops = 0;
+        while (true) {
+            Ring next = null;
+            for (Ring ring : rings) {
+                if (ring.isEmpty()) {
+                    if (!ring.owner.isAlive() && ring.isEmpty()) rings.remove(ring);
+                    continue;
+                }
+                if (next == null || ring.peekSequence() < next.peekSequence()) next = ring;
+            }
+            if (next == null) {
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    out.printf("Warning: %d log messages were dropped.%n", drops - reportedDrops);
+                    reportedDrops = drops;
+                }
+                out.flush();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                continue;
+            }
+            line.setLength(0);
+            long polled = next.poll(line);
+            out.println(line);
+            written = polled;
+        }
+    }
+
+    /**
+     * The messages of a thread waiting to be written: a single producer, single consumer ring buffer.
+     */
+    private static final class Ring {
+
+        private final Thread owner;
+        private final long[] sequences = new long[RING_SIZE];
+        private final Level[] levels = new Level[RING_SIZE];
+        private final String[] formats = new String[RING_SIZE];
+        private final Object[][] args = new Object[RING_SIZE][];
+        private final Object[] a = new Object[RING_SIZE], b = new Object[RING_SIZE], c = new Object[RING_SIZE];
+
+        /**
+         * The number of messages added (written by the owner) and removed (written by the writer thread).
+         */
+        private volatile long head, tail;
+
+        private Ring(Thread owner) {
+            this.owner = owner;
+        }
+
+        private boolean isEmpty() {
+            return tail == head;
+        }
+
+        private boolean offer(Level level, String format, Object a, Object b, Object c, Object[] args) {
+            long head = this.head;
+            if (head - tail == RING_SIZE) return false;
+            int i = (int) (head % RING_SIZE);
+            sequences[i] = sequence.incrementAndGet();
+            levels[i] = level;
+            formats[i] = format;
+            this.a[i] = a;
+            this.b[i] = b;
+            this.c[i] = c;
+            this.args[i] = args;
+            this.head = head + 1;
+            return true;
+        }
+
+        private long peekSequence() {
+            return sequences[(int) (tail % RING_SIZE)];
+        }
+
+        /**
+         * Removes the oldest message and formats it.
+         *
+         * @param line - the builder to format the message into.
+         * @return     - the message's sequence number.
+         */
+        private long poll(StringBuilder line) {
+            int i = (int) (tail % RING_SIZE);
+            line.append(levels[i].prefix).append(": ");
+            Object[] arguments = args[i] != null ? args[i] : new Object[]{a[i], b[i], c[i]};
+            try {
+                line.append(String.format(formats[i], arguments));
+            } catch (RuntimeException e) {
+                line.append(formats[i]).append(" (").append(e).append(')');
+            }
+            long sequence = sequences[i];
+            formats[i] = null;
+            a[i] = b[i] = c[i] = null;
+            args[i] = null;
+            tail = tail + 1;
+            return sequence;
+        }
+    }
+}
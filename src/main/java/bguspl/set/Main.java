@@ -1,10 +1,15 @@
 package bguspl.set;
 
+import bguspl.set.ex.Checkpoint;
 import bguspl.set.ex.Dealer;
 import bguspl.set.ex.Player;
 import bguspl.set.ex.Table;
+import bguspl.set.net.GameServer;
+import bguspl.set.net.SharedMemoryBots;
 
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * This class contains the game's main function.
@@ -20,16 +25,47 @@ public class Main {
 
         // create the game environment objects
         Config config = new Config("config.properties");
+        Log.setLevel(config.logLevel);
         UserInterfaceImpl ui = new UserInterfaceImpl(config);
         EventQueue.invokeLater(() -> ui.setVisible(true));
-        Env env = new Env(config, ui, new UtilImpl(config));
+
+        // remote players join through the game server and receive the same updates as the window
+        Player[] players = new Player[config.players];
+        GameServer server = null;
+        UserInterface display = ui;
+        if (config.serverPort >= 0) {
+            try {
+                server = new GameServer(config.serverPort);
+                display = new CompositeUserInterface(ui,
+                        server.addTable(0, players, config.humanPlayers, config.tableSize));
+                server.start();
+            } catch (IOException e) {
+                Log.warning("cannot start the game server on port %d (%s).", config.serverPort, e);
+            }
+        }
+        Env env = new Env(config, display, new UtilImpl(config));
 
         // create the game entities
-        Player[] players = new Player[env.config.players];
         Table table = new Table(env);
-        Dealer dealer = new Dealer(env, table, players);
+        Checkpoint.Saved saved = Checkpoint.read(config);
+        if (saved != null) Log.info("resuming the game from the checkpoint.");
+        Dealer dealer = saved != null ? new Dealer(env, table, players, saved) : new Dealer(env, table, players);
+
+        // bot processes play the computer players through the bot channel, if there is one
+        SharedMemoryBots bots = null;
+        if (!config.botChannel.isEmpty()) {
+            try {
+                bots = new SharedMemoryBots(Paths.get(config.botChannel), table, players, config.tableSize,
+                        config.humanPlayers);
+            } catch (IOException e) {
+                Log.warning("cannot open the bot channel %s (%s).", config.botChannel, e);
+            }
+        }
         for (int i = 0; i < players.length; i++)
-            players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+            // the players the bot channel serves are played by the bot processes, not by the game's computer players
+            players[i] = new Player(env, dealer, table, i,
+                    i < env.config.humanPlayers || bots != null && bots.serves(i));
+        if (bots != null) bots.start();
         ui.addKeyListener(new InputManager(env, players));
         ui.addWindowListener(new WindowManager(dealer));
 
@@ -38,6 +74,8 @@ public class Main {
         dealerThread.start();
 
         try { dealerThread.join(); } catch (InterruptedException ignored) {}
-        System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
+        if (bots != null) bots.terminate();
+        if (server != null) server.terminate();
+        Log.info("Thread %s terminated.", Thread.currentThread().getName());
     }
 }
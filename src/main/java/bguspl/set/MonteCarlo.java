@@ -0,0 +1,312 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Estimates game statistics by simulating random deals and full games, without the timing of real games.
+ * <p>
+ * The trials are split between worker threads. Every worker has its own random generator (split from a single seed,
+ * so a run is reproducible for a given seed and number of workers) and its own statistics, which are merged at the end.
+ * The trials themselves are never stored: every statistic is aggregated as it streams in.
+ * <p>
+ * Usage: MonteCarlo [deals] [games] [output.csv] [seed] [config.properties]
+ */
+public class MonteCarlo {
+
+    /**
+     * The game configuration.
+     */
+    private final Config config;
+
+    /**
+     * The game utilities (used to find the sets).
+     */
+    private final Util util;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int workers;
+
+    public MonteCarlo(Config config, Util util, int workers) {
+        this.config = config;
+        this.util = util;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Runs the simulation and writes the results to a CSV file.
+     *
+     * @param args - the number of deals, the number of games, the output file, the seed and the configuration file.
+     */
+    public static void main(String[] args) throws IOException {
+        long deals = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long games = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+        String output = args.length > 2 ? args[2] : "monte-carlo.csv";
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        Config config = new Config(args.length > 4 ? args[4] : "config.properties");
+
+        MonteCarlo simulation = new MonteCarlo(config, new UtilImpl(config), Runtime.getRuntime().availableProcessors());
+        long start = System.currentTimeMillis();
+        Map<String, Statistic> results = new LinkedHashMap<>();
+        results.putAll(simulation.deals(deals, seed));
+        results.putAll(simulation.games(games, seed + 1));
+        System.out.printf("Info: simulated %d deals and %d games in %d ms.%n", deals, games, System.currentTimeMillis() - start);
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8))) {
+            writeCsv(results, writer);
+        }
+        System.out.printf("Info: results written to %s.%n", output);
+    }
+
+    /**
+     * Simulates random deals of config.tableSize cards.
+     *
+     * @param trials - the number of deals.
+     * @param seed   - the seed of the random generators.
+     * @return       - the statistics: "sets per deal" and "deal without a set" (0 or 1, so its mean is a probability).
+     */
+    public Map<String, Statistic> deals(long trials, long seed) {
+        return run(trials, seed, (random, stats) -> {
+            Statistic sets = stats.computeIfAbsent("sets per deal", name -> new Statistic());
+            Statistic none = stats.computeIfAbsent("deal without a set", name -> new Statistic());
+            int[] deck = newDeck();
+            List<Integer> table = new ArrayList<>(config.tableSize);
+            return () -> {
+                table.clear();
+                int size = Math.min(config.tableSize, deck.length);
+                for (int i = 0; i < size; ++i) {
+                    // partial Fisher-Yates shuffle: only the dealt cards are drawn
+                    int j = i + random.nextInt(deck.length - i);
+                    int card = deck[j];
+                    deck[j] = deck[i];
+                    deck[i] = card;
+                    table.add(card);
+                }
+                int count = util.countSets(table);
+                sets.add(count);
+                none.add(count == 0 ? 1 : 0);
+            };
+        });
+    }
+
+    /**
+     * Simulates full games: sets are taken off the table one at a time and replaced from the deck, and the table is
+     * reshuffled into the deck whenever it has no set, until neither the table nor the deck have a set.
+     *
+     * @param trials - the number of games.
+     * @param seed   - the seed of the random generators.
+     * @return       - the statistics: "sets per game", "reshuffles per game" and "cards left per game".
+     */
+    public Map<String, Statistic> games(long trials, long seed) {
+        return run(trials, seed, (random, stats) -> {
+            Statistic sets = stats.computeIfAbsent("sets per game", name -> new Statistic());
+            Statistic reshuffles = stats.computeIfAbsent("reshuffles per game", name -> new Statistic());
+            Statistic left = stats.computeIfAbsent("cards left per game", name -> new Statistic());
+            int[] cards = newDeck();
+            List<Integer> deck = new ArrayList<>(cards.length);
+            List<Integer> table = new ArrayList<>(config.tableSize);
+            int[] found = new int[config.featureSize];
+            return () -> {
+                shuffle(cards, random);
+                deck.clear();
+                for (int card : cards)
+                    deck.add(card);
+                table.clear();
+
+                int setCount = 0, reshuffleCount = 0;
+                while (true) {
+                    while (table.size() < config.tableSize && !deck.isEmpty())
+                        table.add(deck.remove(deck.size() - 1));
+
+                    found[0] = -1;
+                    util.forEachSet(table, set -> {
+                        System.arraycopy(set, 0, found, 0, set.length);
+                        return false;
+                    });
+                    if (found[0] >= 0) {
+                        for (int card : found)
+                            table.remove((Integer) card);
+                        ++setCount;
+                        continue;
+                    }
+
+                    // no set on the table: stop if there is none left at all, otherwise reshuffle
+                    table.addAll(deck);
+                    if (deck.isEmpty() || !util.hasSet(table)) break;
+                    deck.clear();
+                    deck.addAll(table);
+                    table.clear();
+                    for (int i = deck.size() - 1; i > 0; --i)
+                        deck.set(i, deck.set(random.nextInt(i + 1), deck.get(i)));
+                    ++reshuffleCount;
+                }
+                sets.add(setCount);
+                reshuffles.add(reshuffleCount);
+                left.add(table.size());
+            };
+        });
+    }
+
+    /**
+     * A kind of trial: creates the trial runner of a worker, given the worker's random generator and statistics.
+     */
+    private interface Experiment {
+        Runnable worker(SplittableRandom random, Map<String, Statistic> stats);
+    }
+
+    /**
+     * Runs trials on the worker threads and merges their statistics.
+     */
+    private Map<String, Statistic> run(long trials, long seed, Experiment experiment) {
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Map<String, Statistic>> partial = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < workers; ++w) {
+            long share = trials / workers + (w < trials % workers ? 1 : 0);
+            Map<String, Statistic> stats = new LinkedHashMap<>();
+            Runnable trial = experiment.worker(root.split(), stats);
+            partial.add(stats);
+            Thread thread = new Thread(() -> {
+                for (long t = 0; t < share; ++t)
+                    trial.run();
+            }, "monte-carlo-" + w);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+            try { thread.join(); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
+
+        Map<String, Statistic> merged = new LinkedHashMap<>();
+        for (Map<String, Statistic> stats : partial)
+            stats.forEach((name, statistic) -> merged.computeIfAbsent(name, key -> new Statistic()).merge(statistic));
+        return merged;
+    }
+
+    private int[] newDeck() {
+        int[] deck = new int[config.deckSize];
+        for (int card = 0; card < deck.length; ++card)
+            deck[card] = card;
+        return deck;
+    }
+
+    private static void shuffle(int[] cards, SplittableRandom random) {
+        for (int i = cards.length - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int card = cards[i];
+            cards[i] = cards[j];
+            cards[j] = card;
+        }
+    }
+
+    /**
+     * Writes statistics as CSV rows of (metric, statistic, value), with a "histogram[v]" row per observed value.
+     *
+     * @param results - the statistics, by metric name.
+     * @param writer  - the output.
+     */
+    public static void writeCsv(Map<String, Statistic> results, PrintWriter writer) {
+        writer.println("metric,statistic,value");
+        results.forEach((name, s) -> {
+            writer.printf("%s,count,%d%n", name, s.count());
+            writer.printf("%s,mean,%s%n", name, s.mean());
+            writer.printf("%s,variance,%s%n", name, s.variance());
+            writer.printf("%s,min,%d%n", name, s.min());
+            writer.printf("%s,max,%d%n", name, s.max());
+            for (int value = 0; value < s.histogram.length; ++value)
+                if (s.histogram[value] > 0)
+                    writer.printf("%s,histogram[%d],%d%n", name, value, s.histogram[value]);
+        });
+    }
+
+    /**
+     * Streaming statistics of non-negative integer samples: count, mean and variance (Welford's algorithm, mergeable
+     * between workers), minimum, maximum and a histogram of the values.
+     */
+    public static class Statistic {
+
+        private long count;
+        private double mean;
+        private double m2;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private long[] histogram = new long[16];
+
+        /**
+         * @param value - a sample (must not be negative).
+         */
+        public void add(long value) {
+            ++count;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (value >= histogram.length)
+                histogram = Arrays.copyOf(histogram, (int) Math.max(histogram.length * 2, value + 1));
+            ++histogram[(int) value];
+        }
+
+        /**
+         * Adds the samples of another statistic to this one.
+         *
+         * @param other - the other statistic.
+         */
+        public void merge(Statistic other) {
+            if (other.count == 0) return;
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            m2 += other.m2 + delta * delta * count * other.count / total;
+            count = total;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            if (other.histogram.length > histogram.length)
+                histogram = Arrays.copyOf(histogram, other.histogram.length);
+            for (int value = 0; value < other.histogram.length; ++value)
+                histogram[value] += other.histogram[value];
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public double mean() {
+            return mean;
+        }
+
+        /**
+         * @return - the sample variance (0 for fewer than 2 samples).
+         */
+        public double variance() {
+            return count > 1 ? m2 / (count - 1) : 0;
+        }
+
+        public long min() {
+            return min;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @param value - a sample value.
+         * @return      - the number of samples with this value.
+         */
+        public long frequency(int value) {
+            return value < histogram.length ? histogram[value] : 0;
+        }
+    }
+}
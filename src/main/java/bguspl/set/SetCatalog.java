@@ -0,0 +1,258 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A catalog of every legal set in the full deck, and an index from every card to the sets that contain it.
+ * The catalog is generated once per (featureCount, featureSize) variant, cached on disk and memory-mapped, so large
+ * decks (e.g. FeatureCount=6, 729 cards) do not pay for finding their sets again on every startup or query.
+ * <p>
+ * File layout (ints): magic, version, featureCount, featureSize, deckSize, setCount,
+ * sets[setCount * featureSize] (the sorted cards of every set),
+ * offsets[deckSize + 1] (the sets of card c are incidence[offsets[c]] .. incidence[offsets[c + 1] - 1]),
+ * incidence[setCount * featureSize].
+ */
+public class SetCatalog {
+
+    private static final int MAGIC = 0x53455443; // "SETC"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+
+    /**
+     * The catalogs already loaded in this process, by file.
+     */
+    private static final Map<String, SetCatalog> loaded = new HashMap<>();
+
+    /**
+     * The number of cards in a set, the number of cards in the deck and the number of sets in the deck.
+     */
+    private final int setSize;
+    private final int deckSize;
+    private final int setCount;
+
+    /**
+     * Views of the mapped file.
+     */
+    private final IntBuffer sets;
+    private final IntBuffer offsets;
+    private final IntBuffer incidence;
+
+    private SetCatalog(IntBuffer data) {
+        setSize = data.get(3);
+        deckSize = data.get(4);
+        setCount = data.get(5);
+        sets = slice(data, HEADER_INTS, setCount * setSize);
+        offsets = slice(data, HEADER_INTS + setCount * setSize, deckSize + 1);
+        incidence = slice(data, HEADER_INTS + setCount * setSize + deckSize + 1, setCount * setSize);
+    }
+
+    private static IntBuffer slice(IntBuffer data, int position, int length) {
+        IntBuffer view = data.duplicate();
+        view.position(position);
+        view.limit(position + length);
+        return view.slice();
+    }
+
+    /**
+     * Returns the catalog of the config's variant, loading it from the cache directory or generating it if needed.
+     *
+     * @param config - the game configuration.
+     * @return       - the catalog.
+     */
+    public static synchronized SetCatalog of(Config config) {
+        String name = String.format("set-catalog-%d-%d.bin", config.featureCount, config.featureSize);
+        Path file = Paths.get(config.setCatalogDirectory, name).toAbsolutePath();
+        SetCatalog catalog = loaded.get(file.toString());
+        if (catalog == null) {
+            try {
+                catalog = map(file, config);
+                if (catalog == null) {
+                    Log.info("generating set catalog %s.", file);
+                    generate(file, config);
+                    catalog = map(file, config);
+                }
+            } catch (IOException e) {
+                Log.warning("cannot cache set catalog %s (%s), keeping it in memory.", file, e);
+                catalog = new SetCatalog(build(config).asIntBuffer());
+            }
+            loaded.put(file.toString(), catalog);
+        }
+        return catalog;
+    }
+
+    /**
+     * Maps a catalog file.
+     *
+     * @return - the catalog, or null if the file does not exist or does not match the config's variant.
+     */
+    private static SetCatalog map(Path file, Config config) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_INTS * Integer.BYTES) return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            IntBuffer data = buffer.asIntBuffer();
+            long expected = HEADER_INTS + 2L * data.get(5) * config.featureSize + config.deckSize + 1;
+            if (data.get(0) != MAGIC || data.get(1) != VERSION || data.get(2) != config.featureCount
+                    || data.get(3) != config.featureSize || data.get(4) != config.deckSize
+                    || data.capacity() != expected)
+                return null;
+            return new SetCatalog(data);
+        }
+    }
+
+    /**
+     * Generates the catalog file (written to a temporary file first, so readers never see a partial catalog).
+     */
+    private static void generate(Path file, Config config) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = build(config);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Finds all the sets in the deck and builds the catalog contents.
+     */
+    private static ByteBuffer build(Config config) {
+        List<Integer> deck = IntStream.range(0, config.deckSize).boxed().collect(Collectors.toList());
+        List<int[]> all = new SetFinder(config).findSets(deck, Integer.MAX_VALUE);
+        int setSize = config.featureSize;
+        int setCount = all.size();
+
+        ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + 2 * setCount * setSize + config.deckSize + 1) * Integer.BYTES);
+        IntBuffer data = buffer.asIntBuffer();
+        data.put(MAGIC).put(VERSION).put(config.featureCount).put(setSize).put(config.deckSize).put(setCount);
+
+        int[] degree = new int[config.deckSize];
+        for (int[] set : all) {
+            data.put(set);
+            for (int card : set)
+                ++degree[card];
+        }
+
+        int[] offset = new int[config.deckSize + 1];
+        for (int card = 0; card < config.deckSize; ++card)
+            offset[card + 1] = offset[card] + degree[card];
+        data.put(offset);
+
+        int[] incidence = new int[setCount * setSize];
+        int id = 0;
+        for (int[] set : all) {
+            for (int card : set)
+                incidence[offset[card]++] = id;
+            ++id;
+        }
+        data.put(incidence);
+        return buffer;
+    }
+
+    /**
+     * @return - the number of sets in the full deck.
+     */
+    public int setCount() {
+        return setCount;
+    }
+
+    /**
+     * @param set   - the set id (between 0 and setCount() - 1).
+     * @param index - the index of the card in the set (cards are sorted).
+     * @return      - the card id.
+     */
+    public int card(int set, int index) {
+        return sets.get(set * setSize + index);
+    }
+
+    /**
+     * @param card - the card id.
+     * @return     - the number of sets that contain the card.
+     */
+    public int degree(int card) {
+        return offsets.get(card + 1) - offsets.get(card);
+    }
+
+    /**
+     * @param card  - the card id.
+     * @param index - the index of the set among the sets that contain the card (between 0 and degree(card) - 1).
+     * @return      - the set id.
+     */
+    public int setOf(int card, int index) {
+        return incidence.get(offsets.get(card) + index);
+    }
+
+    /**
+     * Creates a counter of the sets that are complete in a changing collection of cards (initially empty).
+     *
+     * @return - the counter.
+     */
+    public Counter counter() {
+        return new Counter();
+    }
+
+    /**
+     * Counts the sets that are complete in a collection of cards as cards are added and removed, so checking if the
+     * collection contains a set takes constant time. Adding or removing a card costs degree(card) updates.
+     */
+    public class Counter {
+
+        /**
+         * The number of cards of every set that are in the collection.
+         */
+        private final byte[] present = new byte[setCount];
+
+        /**
+         * The number of sets that are complete in the collection.
+         */
+        private int complete;
+
+        /**
+         * @param card - a card added to the collection.
+         */
+        public void add(int card) {
+            int start = offsets.get(card), end = offsets.get(card + 1);
+            for (int i = start; i < end; ++i)
+                if (++present[incidence.get(i)] == setSize) ++complete;
+        }
+
+        /**
+         * @param card - a card removed from the collection.
+         */
+        public void remove(int card) {
+            int start = offsets.get(card), end = offsets.get(card + 1);
+            for (int i = start; i < end; ++i)
+                if (present[incidence.get(i)]-- == setSize) --complete;
+        }
+
+        /**
+         * @return - the number of sets in the collection.
+         */
+        public int count() {
+            return complete;
+        }
+
+        /**
+         * @param other - a counter of the same catalog, whose collection this counter takes.
+         */
+        public void copyFrom(Counter other) {
+            System.arraycopy(other.present, 0, present, 0, present.length);
+            complete = other.complete;
+        }
+    }
+}
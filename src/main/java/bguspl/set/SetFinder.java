@@ -0,0 +1,551 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds legal sets in a collection of cards without testing every combination of config.featureSize cards.
+ * <p>
+ * A set of k = config.featureSize cards has, for every feature, either one value or all k values. So the values a
+ * part of a set uses determine exactly which values the rest of the set must use:
+ * - for k == 3, any two cards determine the third one (see SetIndex.complete), so pairs are completed with a lookup.
+ * - for k > 3 the search meets in the middle: a set is split into its a = ceil(k / 2) first cards and its b = k - a
+ *   last cards. All the b-card partial sets are indexed by the values they use per feature, and every a-card partial
+ *   set looks up the b-card partial sets that complete it. This costs about C(n, a) + C(n, b) instead of C(n, k).
+ * <p>
+ * Large collections are searched in parallel on a dedicated fork/join pool: the search is split by the position of
+ * the first card of the sets, and the results are concatenated in that order, so they are the same as those of the
+ * sequential search.
+ */
+public class SetFinder {
+
+    /**
+     * The minimum number of cards for which the search runs in parallel.
+     */
+    private static final int PARALLEL_MIN_CARDS = 256;
+
+    /**
+     * The pool of the parallel searches (shared by all the finders, separate from the common pool).
+     */
+    private static ForkJoinPool pool;
+
+    /**
+     * The number of features on the cards.
+     */
+    private final int featureCount;
+
+    /**
+     * The number of cards in a legal set.
+     */
+    private final int setSize;
+
+    /**
+     * The total number of cards in the deck.
+     */
+    private final int deckSize;
+
+    /**
+     * Set completion lookup tables.
+     */
+    private final SetIndex index;
+
+    /**
+     * The values each card uses, as a bitmask of setSize bits per feature: featureMasks[card].
+     */
+    private final long[] featureMasks;
+
+    /**
+     * A bitmask of setSize bits.
+     */
+    private final long fieldMask;
+
+    public SetFinder(Config config) {
+        this(config, new SetIndex(config));
+    }
+
+    public SetFinder(Config config, SetIndex index) {
+        this.featureCount = config.featureCount;
+        this.setSize = config.featureSize;
+        this.deckSize = config.deckSize;
+        this.index = index;
+        this.fieldMask = (1L << setSize) - 1;
+
+        featureMasks = new long[deckSize];
+        if (supportsMasks())
+            for (int card = 0; card < deckSize; ++card)
+                for (int i = 0; i < featureCount; ++i)
+                    featureMasks[card] |= (1L << index.feature(card, i)) << (i * setSize);
+    }
+
+    /**
+     * @return - the pool of the parallel searches (created on first use, with a thread per available processor).
+     */
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    /**
+     * @return - true iff the values of all the features of a card fit into a single long bitmask.
+     */
+    private boolean supportsMasks() {
+        return setSize >= 3 && (long) featureCount * setSize < Long.SIZE;
+    }
+
+    /**
+     * Finds and returns up to count sets in the given collection of cards (see Util.findSets).
+     * The sets are returned in the lexicographic order of the positions of their cards in the collection.
+     *
+     * @param deck  - a collection of cards (may not include null objects).
+     * @param count - the maximum number of sets to find.
+     * @return      - a list of up to count integer arrays, each one contains the (sorted) card ids of a legal set.
+     */
+    public List<int[]> findSets(List<Integer> deck, int count) {
+        return findSets(deck, count, deck.size() >= PARALLEL_MIN_CARDS);
+    }
+
+    /**
+     * Finds and returns up to count sets in the given collection of cards.
+     *
+     * @param deck     - a collection of cards (may not include null objects).
+     * @param count    - the maximum number of sets to find.
+     * @param parallel - true iff the search should run on the fork/join pool.
+     * @return         - a list of up to count integer arrays, each one contains the (sorted) card ids of a legal set.
+     */
+    public List<int[]> findSets(List<Integer> deck, int count, boolean parallel) {
+        LinkedList<int[]> sets = new LinkedList<>();
+        int n = deck.size();
+        if (count <= 0 || n < setSize) return sets;
+
+        int[] cards = new int[n];
+        for (int i = 0; i < n; ++i)
+            cards[i] = deck.get(i);
+
+        Search search;
+        if (setSize == 3)
+            search = new PairSearch(cards);
+        else if (supportsMasks())
+            search = new HalvesSearch(cards);
+        else
+            search = new CombinationSearch(cards);
+
+        if (parallel)
+            new ParallelSearch(search, count).run(sets);
+        else
+            for (int first = 0; first < n; ++first)
+                if (!search.from(first, collector(sets, count), null)) break;
+        return sets;
+    }
+
+    /**
+     * @return - a visitor that adds the sets to a list until it holds count sets.
+     */
+    private static Util.SetVisitor collector(List<int[]> sets, int count) {
+        return set -> {
+            sets.add(set);
+            return sets.size() < count;
+        };
+    }
+
+    /**
+     * Passes the sets in the given collection of cards to a visitor (see Util.forEachSet). Sets of 3 cards are
+     * completed from pairs without allocating; larger sets are found by meeting in the middle, which indexes the
+     * partial sets of the collection first.
+     * The sets are visited in the lexicographic order of the positions of their cards in the collection.
+     *
+     * @param deck    - a collection of cards (may not include null objects).
+     * @param visitor - the visitor (may be null to only count the sets).
+     * @param count   - the maximum number of sets to visit.
+     * @return        - the number of sets visited.
+     */
+    public int forEachSet(List<Integer> deck, Util.SetVisitor visitor, int count) {
+        if (setSize == 3 || !supportsMasks())
+            return scans.get().scan(deck, visitor, count);
+
+        int n = deck.size();
+        if (count <= 0 || n < setSize) return 0;
+        int[] cards = new int[n];
+        for (int i = 0; i < n; ++i)
+            cards[i] = deck.get(i);
+        Search search = new HalvesSearch(cards);
+        int[] found = {0};
+        Util.SetVisitor counter = set -> {
+            ++found[0];
+            return (visitor == null || visitor.visit(set)) && found[0] < count;
+        };
+        for (int first = 0; first < n; ++first)
+            if (!search.from(first, counter, null)) break;
+        return found[0];
+    }
+
+    /**
+     * The buffers of the streaming scan, one per thread so that the finder can be shared.
+     */
+    private final ThreadLocal<Scan> scans = ThreadLocal.withInitial(Scan::new);
+
+    /**
+     * A scan that completes every combination of setSize - 1 cards and looks the completing card up, reusing its
+     * buffers between calls.
+     */
+    private class Scan {
+
+        private final int[] cards = new int[deckSize];
+        private final int[] position = new int[deckSize];
+        private final int[] combination = new int[setSize];
+        private final int[] partial = new int[setSize];
+        private final int[] set = new int[setSize];
+
+        Scan() {
+            Arrays.fill(position, -1);
+        }
+
+        int scan(List<Integer> deck, Util.SetVisitor visitor, int count) {
+            int n = deck.size(), r = setSize - 1, found = 0;
+            if (count <= 0 || n < setSize || r < 2) return 0;
+
+            for (int i = 0; i < n; ++i) {
+                cards[i] = deck.get(i);
+                position[cards[i]] = i;
+            }
+            for (int i = 0; i < r; ++i)
+                combination[i] = i;
+
+            boolean proceed = true;
+            while (proceed && combination[r - 1] < n) {
+                for (int i = 0; i < r; ++i)
+                    partial[i] = cards[combination[i]];
+                int card = r == 2 ? index.complete(partial[0], partial[1]) : index.complete(partial, r);
+
+                // the completing card must come after the others, so every set is visited exactly once
+                if (card >= 0 && position[card] > combination[r - 1]) {
+                    ++found;
+                    if (visitor != null) {
+                        System.arraycopy(partial, 0, set, 0, r);
+                        set[r] = card;
+                        Arrays.sort(set);
+                        proceed = visitor.visit(set);
+                    }
+                    proceed &= found < count;
+                }
+                nextCombination(combination, 0, r, n);
+            }
+
+            for (int i = 0; i < n; ++i)
+                position[cards[i]] = -1;
+            return found;
+        }
+    }
+
+    /**
+     * A search over a collection of cards, split by the position of the first card of the sets.
+     */
+    private abstract class Search {
+
+        protected final int[] cards;
+        protected final int n;
+
+        Search(int[] cards) {
+            this.cards = cards;
+            this.n = cards.length;
+        }
+
+        /**
+         * Finds the sets whose first card (by position in the collection) is cards[first], in lexicographic order.
+         *
+         * @param first    - the position of the first card.
+         * @param visitor  - receives every set found (a new array); the search stops when it returns false.
+         * @param parallel - the parallel search this is a part of (null if sequential).
+         * @return         - false iff the visitor stopped the search.
+         */
+        abstract boolean from(int first, Util.SetVisitor visitor, ParallelSearch parallel);
+    }
+
+    /**
+     * Finds sets of 3 cards by completing every pair and looking the completing card up.
+     */
+    private class PairSearch extends Search {
+
+        private final int[] position = new int[deckSize];
+
+        PairSearch(int[] cards) {
+            super(cards);
+            Arrays.fill(position, -1);
+            for (int i = 0; i < n; ++i)
+                position[cards[i]] = i;
+        }
+
+        @Override
+        boolean from(int first, Util.SetVisitor visitor, ParallelSearch parallel) {
+            for (int j = first + 1; j < n - 1; ++j) {
+                if (parallel != null && parallel.cancelled(first)) return true;
+                int card = index.complete(cards[first], cards[j]);
+                if (card >= 0 && position[card] > j) {
+                    int[] set = {cards[first], cards[j], card};
+                    Arrays.sort(set);
+                    if (!visitor.visit(set)) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Finds sets of more than 3 cards by matching partial sets of the first a cards with partial sets of the last b
+     * cards (see the class documentation).
+     */
+    private class HalvesSearch extends Search {
+
+        private final int b = setSize / 2;
+        private final int a = setSize - b;
+
+        /**
+         * The b-card partial sets, indexed by the values they use: the positions of their cards, and chains (in
+         * ascending lexicographic order) of the partial sets that use the same values.
+         */
+        private int[] partialCombinations = new int[0];
+        private int[] next = new int[0];
+        private final Map<Long, Integer> heads = new HashMap<>();
+
+        HalvesSearch(int[] cards) {
+            super(cards);
+
+            int partials = 0;
+            int[] tails = new int[0];
+            int[] combination = first(b);
+            while (combination[b - 1] < n) {
+                long key = key(cards, combination, 0, b);
+                if (key != -1) {
+                    if (partials == next.length) {
+                        next = Arrays.copyOf(next, Math.max(16, partials * 2));
+                        tails = Arrays.copyOf(tails, next.length);
+                        partialCombinations = Arrays.copyOf(partialCombinations, next.length * b);
+                    }
+                    System.arraycopy(combination, 0, partialCombinations, partials * b, b);
+                    next[partials] = -1;
+                    Integer head = heads.get(key);
+                    if (head == null) {
+                        heads.put(key, partials);
+                        tails[partials] = partials;
+                    }
+                    else {
+                        // append to the end of the chain to keep it in order
+                        next[tails[head]] = partials;
+                        tails[head] = partials;
+                    }
+                    ++partials;
+                }
+                nextCombination(combination, 0, b, n);
+            }
+        }
+
+        @Override
+        boolean from(int first, Util.SetVisitor visitor, ParallelSearch parallel) {
+            // the a-card partial sets that start with the first card
+            int[] combination = first(a);
+            combination[0] = first;
+            for (int i = 1; i < a; ++i)
+                combination[i] = first + i;
+
+            while (combination[a - 1] < n) {
+                if (parallel != null && parallel.cancelled(first)) return true;
+                long key = key(cards, combination, 0, a);
+                Integer head = key == -1 ? null : heads.get(required(key));
+                for (int entry = head == null ? -1 : head; entry != -1; entry = next[entry]) {
+                    // the b cards must all come after the a cards, so every set is found exactly once
+                    if (partialCombinations[entry * b] <= combination[a - 1]) continue;
+
+                    int[] set = new int[setSize];
+                    for (int i = 0; i < a; ++i)
+                        set[i] = cards[combination[i]];
+                    for (int i = 0; i < b; ++i)
+                        set[a + i] = cards[partialCombinations[entry * b + i]];
+                    Arrays.sort(set);
+                    if (!visitor.visit(set)) return false;
+                }
+                if (a == 1) return true;
+                nextCombination(combination, 1, a, n);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Finds sets by testing every combination of setSize cards (for variants whose feature values do not fit a long).
+     */
+    private class CombinationSearch extends Search {
+
+        CombinationSearch(int[] cards) {
+            super(cards);
+        }
+
+        @Override
+        boolean from(int first, Util.SetVisitor visitor, ParallelSearch parallel) {
+            int[] combination = first(setSize);
+            for (int i = 0; i < setSize; ++i)
+                combination[i] = first + i;
+            int[] set = new int[setSize];
+            while (combination[setSize - 1] < n) {
+                if (parallel != null && parallel.cancelled(first)) return true;
+                for (int i = 0; i < setSize; ++i)
+                    set[i] = cards[combination[i]];
+                if (testSet(set)) {
+                    int[] found = set.clone();
+                    Arrays.sort(found);
+                    if (!visitor.visit(found)) return false;
+                }
+                nextCombination(combination, 1, setSize, n);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Runs a search on the fork/join pool, one task per first card position (split recursively). Every position has
+     * its own result list; once the positions before some position p found count sets in total, the positions after p
+     * are cancelled, since their sets would not be returned anyway.
+     */
+    private class ParallelSearch {
+
+        private final Search search;
+        private final int count;
+        private final List<int[]>[] results;
+        private final boolean[] done;
+
+        /**
+         * The prefix of positions that are done, and the number of sets found in it.
+         */
+        private int prefix;
+        private int prefixSets;
+
+        /**
+         * The last position whose sets are still needed.
+         */
+        private volatile int cutoff;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ParallelSearch(Search search, int count) {
+            this.search = search;
+            this.count = count;
+            this.results = new List[search.n];
+            this.done = new boolean[search.n];
+            this.cutoff = search.n - 1;
+        }
+
+        void run(List<int[]> sets) {
+            pool().invoke(new Range(0, search.n));
+            for (int first = 0; first <= cutoff; ++first)
+                for (int[] set : results[first]) {
+                    if (sets.size() >= count) return;
+                    sets.add(set);
+                }
+        }
+
+        boolean cancelled(int first) {
+            return first > cutoff;
+        }
+
+        private synchronized void finished(int first) {
+            done[first] = true;
+            while (prefix < done.length && done[prefix]) {
+                prefixSets += results[prefix].size();
+                if (prefixSets >= count && prefix < cutoff) cutoff = prefix;
+                ++prefix;
+            }
+        }
+
+        private class Range extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int from, to;
+
+            Range(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Range(from, middle), new Range(middle, to));
+                    return;
+                }
+                List<int[]> sets = new ArrayList<>();
+                if (!cancelled(from))
+                    search.from(from, collector(sets, count), ParallelSearch.this);
+                results[from] = sets;
+                finished(from);
+            }
+        }
+    }
+
+    /**
+     * Computes the values a partial set uses per feature.
+     *
+     * @return - the values as setSize bits per feature, or -1 if the cards cannot be part of the same set.
+     */
+    private long key(int[] cards, int[] combination, int from, int size) {
+        long key = 0;
+        for (int i = from; i < size; ++i)
+            key |= featureMasks[cards[combination[i]]];
+        for (int i = 0; i < featureCount; ++i) {
+            int distinct = Long.bitCount((key >>> (i * setSize)) & fieldMask);
+            if (distinct != 1 && distinct != size) return -1;
+        }
+        return key;
+    }
+
+    /**
+     * Computes the values the rest of a set must use, given the values used by a partial set of at least 2 cards:
+     * the same value where all the values were the same, and all the missing values where all the values were different.
+     */
+    private long required(long key) {
+        long required = 0;
+        for (int i = 0; i < featureCount; ++i) {
+            long field = (key >>> (i * setSize)) & fieldMask;
+            if (Long.bitCount(field) != 1) field = ~field & fieldMask;
+            required |= field << (i * setSize);
+        }
+        return required;
+    }
+
+    /**
+     * Checks if an array of cards forms a legal set (for every feature the values are all the same or all different).
+     */
+    private boolean testSet(int[] cards) {
+        for (int i = 0; i < featureCount; ++i) {
+            long seen = 0;
+            for (int card : cards)
+                seen |= 1L << index.feature(card, i);
+            int distinct = Long.bitCount(seen);
+            if (distinct != 1 && distinct != cards.length) return false;
+        }
+        return true;
+    }
+
+    private static int[] first(int r) {
+        int[] combination = new int[r];
+        for (int i = 0; i < r; ++i)
+            combination[i] = i;
+        return combination;
+    }
+
+    /**
+     * Generates the next combination of r out of n in lexicographic order, keeping the entries before from fixed.
+     * When the last combination is passed, combination[r - 1] becomes >= n.
+     */
+    private static void nextCombination(int[] combination, int from, int r, int n) {
+        int t = r - 1;
+        while (t != from && combination[t] == n - r + t) --t;
+        combination[t]++;
+        for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+    }
+}
@@ -0,0 +1,110 @@
+package bguspl.set;
+
+/**
+ * Precomputed feature tables that allow completing a partial set with a single lookup instead of testing every
+ * candidate card.
+ * A legal set has config.featureSize cards, so (for config.featureSize >= 3) any config.featureSize - 1 distinct cards
+ * determine at most one card that completes them into a set (per feature: the same value if all values are the same,
+ * the missing value if all values are different).
+ */
+public class SetIndex {
+
+    /**
+     * The number of features on the cards.
+     */
+    private final int featureCount;
+
+    /**
+     * The number of choices for each feature (which is also the number of cards in a set).
+     */
+    private final int featureSize;
+
+    /**
+     * The features of all the cards in the deck: features[card * featureCount + feature].
+     */
+    private final int[] features;
+
+    /**
+     * The value of each feature in a card id (i.e. card = sum of features[i] * weights[i]).
+     */
+    private final int[] weights;
+
+    public SetIndex(Config config) {
+        featureCount = config.featureCount;
+        featureSize = config.featureSize;
+        features = new int[config.deckSize * featureCount];
+        weights = new int[featureCount];
+
+        int weight = 1;
+        for (int i = featureCount - 1; i >= 0; --i) {
+            weights[i] = weight;
+            weight *= featureSize;
+        }
+        for (int card = 0; card < config.deckSize; ++card)
+            for (int i = 0; i < featureCount; ++i)
+                features[card * featureCount + i] = (card / weights[i]) % featureSize;
+    }
+
+    /**
+     * @return - the number of cards in a legal set.
+     */
+    public int setSize() {
+        return featureSize;
+    }
+
+    /**
+     * Returns the value of a single feature of a card.
+     * @param card    - the card id.
+     * @param feature - the feature index.
+     * @return        - the feature value (between 0 and config.featureSize - 1).
+     */
+    public int feature(int card, int feature) {
+        return features[card * featureCount + feature];
+    }
+
+    /**
+     * Finds the card that completes the given cards into a legal set.
+     * @param cards  - an array of distinct card ids.
+     * @param length - the number of cards to use from the array (must be config.featureSize - 1).
+     * @return       - the completing card id, or -1 if no card completes the given cards into a set.
+     */
+    public int complete(int[] cards, int length) {
+        if (length != featureSize - 1 || length < 2) return -1;
+
+        int card = 0;
+        for (int i = 0; i < featureCount; ++i) {
+            int seen = 0;
+            for (int j = 0; j < length; ++j)
+                seen |= 1 << features[cards[j] * featureCount + i];
+
+            // the values must be either all the same or all different
+            int distinct = Integer.bitCount(seen);
+            int value;
+            if (distinct == 1) value = Integer.numberOfTrailingZeros(seen);
+            else if (distinct == length) value = Integer.numberOfTrailingZeros(~seen);
+            else return -1;
+            card += value * weights[i];
+        }
+
+        for (int j = 0; j < length; ++j)
+            if (cards[j] == card) return -1;
+        return card;
+    }
+
+    /**
+     * Finds the card that completes two cards into a legal set (only meaningful when config.featureSize == 3).
+     * @param first  - the first card id.
+     * @param second - the second card id.
+     * @return       - the completing card id, or -1 if sets are not of size 3 or the cards are the same.
+     */
+    public int complete(int first, int second) {
+        if (featureSize != 3 || first == second) return -1;
+
+        int card = 0;
+        for (int i = 0; i < featureCount; ++i) {
+            int value = (6 - features[first * featureCount + i] - features[second * featureCount + i]) % 3;
+            card += value * weights[i];
+        }
+        return card;
+    }
+}
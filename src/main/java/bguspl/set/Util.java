@@ -28,6 +28,13 @@ public interface Util {
      */
     boolean testSet(int[] cards);
 
+    /**
+     * Checks a batch of candidate sets at once (much faster than calling testSet for each of them).
+     * @param cards - the candidates, one after the other (config.featureSize card ids each).
+     * @return      - a bitmap of the results: bit i % 64 of word i / 64 is set iff candidate i forms a legal set.
+     */
+    long[] testSets(int[] cards);
+
     /**
      * Finds and returns up to count sets in the given collection of cards.
      * @param deck  - a collection of cards (may not include null objects).
@@ -35,4 +42,38 @@ public interface Util {
      * @return      - a list of up to count integer arrays, each one contains the card ids of a legal set.
      */
     List<int[]> findSets(List<Integer> deck, int count);
+
+    /**
+     * Checks if the given collection of cards contains a legal set (stops at the first set found; for sets of 3 cards
+     * without allocating).
+     * @param deck - a collection of cards (may not include null objects).
+     * @return     - true iff the collection contains a legal set.
+     */
+    boolean hasSet(List<Integer> deck);
+
+    /**
+     * Counts the legal sets in the given collection of cards (for sets of 3 cards without allocating).
+     * @param deck - a collection of cards (may not include null objects).
+     * @return     - the number of legal sets in the collection.
+     */
+    int countSets(List<Integer> deck);
+
+    /**
+     * Passes every legal set in the given collection of cards to a visitor, until the visitor asks to stop.
+     * @param deck    - a collection of cards (may not include null objects).
+     * @param visitor - the visitor.
+     */
+    void forEachSet(List<Integer> deck, SetVisitor visitor);
+
+    /**
+     * Receives the sets found by forEachSet.
+     */
+    interface SetVisitor {
+
+        /**
+         * @param set - the (sorted) card ids of a legal set. The array is reused for the next set, copy it to keep it.
+         * @return    - true to continue to the next set, false to stop.
+         */
+        boolean visit(int[] set);
+    }
 }
@@ -1,7 +1,6 @@
 package bguspl.set;
 
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.IntStream;
 
@@ -12,8 +11,21 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * Finds sets without testing every combination of cards.
+     */
+    private final SetFinder finder;
+
+    /**
+     * Tests batches of candidate sets.
+     */
+    private final BatchSetTester tester;
+
     public UtilImpl(Config config) {
         this.config = config;
+        SetIndex index = new SetIndex(config);
+        this.finder = new SetFinder(config, index);
+        this.tester = new BatchSetTester(config, index);
     }
 
     private void cardToFeatures(int card, int[] features) {
@@ -63,29 +75,52 @@ public class UtilImpl implements Util {
         return true;
     }
 
+    @Override
+    public long[] testSets(int[] cards) {
+        long[] results = new long[(cards.length / config.featureSize + Long.SIZE - 1) / Long.SIZE];
+        tester.testSets(cards, results);
+        return results;
+    }
+
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
-        LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
-        int r = config.featureSize;
-        int[] combination = new int[r];
-
-        for (int i = 0; i < r; ++i)
-            combination[i] = i;
-
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
-            }
-
-            // generate next combination in lexicographic order
-            int t = r - 1;
-            while (t != 0 && combination[t] == n - r + t) --t;
-            combination[t]++;
-            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
-        }
+        GameEvents.FindSets event = new GameEvents.FindSets();
+        event.begin();
+        List<int[]> sets = finder.findSets(deck, count);
+        commit(event, "findSets", deck, sets.size());
         return sets;
     }
+
+    @Override
+    public boolean hasSet(List<Integer> deck) {
+        GameEvents.FindSets event = new GameEvents.FindSets();
+        event.begin();
+        int found = finder.forEachSet(deck, null, 1);
+        commit(event, "hasSet", deck, found);
+        return found > 0;
+    }
+
+    @Override
+    public int countSets(List<Integer> deck) {
+        GameEvents.FindSets event = new GameEvents.FindSets();
+        event.begin();
+        int found = finder.forEachSet(deck, null, Integer.MAX_VALUE);
+        commit(event, "countSets", deck, found);
+        return found;
+    }
+
+    private static void commit(GameEvents.FindSets event, String operation, List<Integer> deck, int found) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.deckSize = deck.size();
+            event.found = found;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void forEachSet(List<Integer> deck, SetVisitor visitor) {
+        finder.forEachSet(deck, visitor, Integer.MAX_VALUE);
+    }
 }
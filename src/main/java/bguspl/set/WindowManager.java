@@ -34,7 +34,7 @@ public class WindowManager implements WindowListener {
     public void windowClosing(WindowEvent e) {
         dealer.terminate();
         try { mainThread.join(); } catch (InterruptedException ignored) {}
-        System.out.println("Info: Thanks for playing... it was fun!");
+        Log.info("Thanks for playing... it was fun!");
     }
 
     @Override
@@ -0,0 +1,177 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.SetIndex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class contains the decision making of a computer player: how long it "thinks" before acting and which slots
+ * it presses. Instead of pressing random slots, the bot completes combinations of cards on the table into sets (see
+ * SetIndex), so most of its claims are legal. The config controls its reaction time, error rate and search budget.
+ */
+public class Bot {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Game entities.
+     */
+    private final Table table;
+
+    /**
+     * Set completion lookup tables.
+     */
+    private final SetIndex index;
+
+    /**
+     * The random source of this bot (reaction times, mistakes and where it starts looking on the table).
+     */
+    private final Random random;
+
+    /**
+     * A consistent copy of the table, reused between decisions.
+     */
+    private final Table.Snapshot snapshot;
+
+    /**
+     * The cards currently on the table and their slots (the first n entries are valid after collectCards), and the
+     * slot of every card on the table (-1 for the other cards).
+     */
+    private final int[] cards;
+    private final int[] slots;
+    private final int[] slotOfCard;
+
+    /**
+     * Scratch buffers for the search: indices into cards, the cards to complete and the chosen slots.
+     */
+    private final int[] combination;
+    private final int[] partial;
+    private final int[] choice;
+
+    /**
+     * The class constructor.
+     *
+     * @param env   - the environment object.
+     * @param table - the table object.
+     * @param seed  - the seed of the bot's random source.
+     */
+    public Bot(Env env, Table table, long seed) {
+        this.env = env;
+        this.table = table;
+        this.index = new SetIndex(env.config);
+        this.random = new Random(seed);
+        snapshot = new Table.Snapshot(table);
+        cards = new int[env.config.tableSize];
+        slots = new int[env.config.tableSize];
+        slotOfCard = new int[env.config.deckSize];
+        Arrays.fill(slotOfCard, -1);
+        combination = new int[env.config.featureSize];
+        partial = new int[env.config.featureSize];
+        choice = new int[env.config.featureSize];
+    }
+
+    /**
+     * Draws the time the bot takes until its next action from a log-normal distribution around the configured median.
+     *
+     * @return - the delay in milliseconds.
+     */
+    public long reactionDelay() {
+        double delay = env.config.computerReactionMillis * Math.exp(env.config.computerReactionSpread * random.nextGaussian());
+        return Math.max(0, Math.round(delay));
+    }
+
+    /**
+     * Decides which slots the bot should have its tokens on.
+     *
+     * @return - the chosen slots (config.featureSize of them, the array is reused between calls), or null if the bot
+     *           did not find anything to claim.
+     */
+    public int[] chooseSlots() {
+        int n = collectCards();
+        int[] chosen;
+        if (n < choice.length) chosen = null;
+        else if (random.nextDouble() < env.config.computerMissProbability) chosen = guess(n);
+        else chosen = findSet(n) ? choice : null;
+
+        for (int i = 0; i < n; ++i)
+            slotOfCard[cards[i]] = -1;
+        return chosen;
+    }
+
+    /**
+     * Copies the cards on the table from a consistent snapshot (starting from a random slot, so bots do not all go for
+     * the same set).
+     *
+     * @return - the number of cards collected.
+     */
+    private int collectCards() {
+        table.snapshot(snapshot);
+        int tableSize = cards.length;
+        int start = random.nextInt(tableSize);
+        int n = 0;
+        for (int i = 0; i < tableSize; ++i) {
+            int slot = (start + i) % tableSize;
+            int card = snapshot.card(slot);
+            if (card >= 0) {
+                cards[n] = card;
+                slots[n] = slot;
+                slotOfCard[card] = slot;
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Chooses random distinct cards out of the collected cards.
+     */
+    private int[] guess(int n) {
+        for (int i = 0; i < choice.length; ++i) {
+            int j = i + random.nextInt(n - i);
+            int slot = slots[j];
+            slots[j] = slots[i];
+            slots[i] = slot;
+            choice[i] = slot;
+        }
+        return choice;
+    }
+
+    /**
+     * Completes combinations of config.featureSize - 1 cards on the table until the completing card is also on the
+     * table or the search budget is exhausted.
+     *
+     * @return - true iff a set was found (its slots are in choice).
+     */
+    private boolean findSet(int n) {
+        int r = choice.length - 1;
+        if (r < 2) return false;
+        for (int i = 0; i < r; ++i)
+            combination[i] = i;
+
+        int checks = 0;
+        while (combination[r - 1] < n && checks++ < env.config.computerMaxChecks) {
+            for (int i = 0; i < r; ++i)
+                partial[i] = cards[combination[i]];
+
+            int card = index.complete(partial, r);
+            if (card >= 0 && slotOfCard[card] >= 0) {
+                for (int i = 0; i < r; ++i)
+                    choice[i] = slots[combination[i]];
+                choice[r] = slotOfCard[card];
+                return true;
+            }
+
+            // generate next combination in lexicographic order
+            int t = r - 1;
+            while (t != 0 && combination[t] == n - r + t) --t;
+            combination[t]++;
+            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,217 @@
+package bguspl.set.ex;
+
+import bguspl.set.Log;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Drives the computer players of all the tables with a small, fixed number of threads (instead of a thread per bot).
+ * Every bot is a task with a deadline for its next action; the tasks are kept in a priority queue ordered by deadline
+ * and the scheduler threads run whichever task is due first.
+ * The scheduler measures its lag (how late tasks run compared to their deadline) so starvation is visible.
+ */
+public class BotScheduler {
+
+    /**
+     * The lag (in milliseconds) from which the scheduler warns that bots are being starved.
+     */
+    private static final long LAG_WARNING_MILLIS = 100;
+
+    /**
+     * The minimum number of milliseconds between two lag warnings.
+     */
+    private static final long LAG_WARNING_INTERVAL_MILLIS = 5000;
+
+    /**
+     * The scheduler shared by all the players that are not given one explicitly.
+     */
+    private static BotScheduler common;
+
+    /**
+     * The pending tasks, ordered by their deadline.
+     */
+    private final DelayQueue<Task> tasks = new DelayQueue<>();
+
+    /**
+     * The scheduler threads.
+     */
+    private final Thread[] workers;
+
+    /**
+     * True iff the scheduler should stop running tasks.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * The lag of the last task that ran and the maximum lag since the last call to maxLagMillis (in nanoseconds).
+     */
+    private volatile long lastLag;
+    private final AtomicLong maxLag = new AtomicLong();
+
+    /**
+     * The time of the last lag warning.
+     */
+    private volatile long lastWarning = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(LAG_WARNING_INTERVAL_MILLIS);
+
+    /**
+     * A scheduled bot action. The same object is re-queued after every run, so scheduling does not allocate.
+     */
+    public static final class Task implements Delayed {
+
+        /**
+         * The action to run. Returns the number of milliseconds until it should run again, or a negative number to stop.
+         */
+        private final LongSupplier action;
+
+        /**
+         * The time (System.nanoTime) at which the task should run.
+         */
+        private volatile long deadline;
+
+        /**
+         * True iff the task should not run anymore.
+         */
+        private volatile boolean cancelled;
+
+        private Task(LongSupplier action) {
+            this.action = action;
+        }
+
+        /**
+         * Stops the task from running again.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Task) other).deadline);
+        }
+    }
+
+    /**
+     * The class constructor.
+     *
+     * @param threads - the number of scheduler threads.
+     */
+    public BotScheduler(int threads) {
+        workers = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Thread(this::work, "bot-scheduler-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @return - the scheduler shared by all the tables in this process (created on first use, with a single thread).
+     */
+    public static synchronized BotScheduler common() {
+        if (common == null)
+            common = new BotScheduler(1);
+        return common;
+    }
+
+    /**
+     * Schedules a repeating bot action.
+     *
+     * @param action - the action. Returns the number of milliseconds until its next run, or a negative number to stop.
+     * @param delay  - the number of milliseconds until the first run.
+     * @return       - the task (can be used to cancel it).
+     */
+    public Task schedule(LongSupplier action, long delay) {
+        Task task = new Task(action);
+        task.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * @return - the lag of the last task that ran, in milliseconds.
+     */
+    public long lagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLag);
+    }
+
+    /**
+     * @return - the maximum lag since the previous call to this method, in milliseconds.
+     */
+    public long maxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLag.getAndSet(0));
+    }
+
+    /**
+     * @return - the number of scheduled tasks.
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Stops the scheduler threads.
+     */
+    public void terminate() {
+        terminate = true;
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+    /**
+     * The main loop of a scheduler thread.
+     */
+    private void work() {
+        Log.info("Thread %s starting.", Thread.currentThread().getName());
+        while (!terminate) {
+            Task task;
+            try {
+                task = tasks.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (task.cancelled) continue;
+
+            long now = System.nanoTime();
+            recordLag(now - task.deadline, now);
+
+            long delay;
+            try {
+                delay = task.action.getAsLong();
+            } catch (RuntimeException e) {
+                Log.warning("bot task failed: %s", e);
+                delay = -1;
+            }
+            if (delay >= 0 && !task.cancelled) {
+                task.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                tasks.add(task);
+            }
+        }
+        Log.info("Thread %s terminated.", Thread.currentThread().getName());
+    }
+
+    /**
+     * Updates the lag statistics and warns (at most every few seconds) if bots are being starved.
+     */
+    private void recordLag(long lag, long now) {
+        lastLag = lag;
+        long max = maxLag.get();
+        while (lag > max && !maxLag.compareAndSet(max, lag))
+            max = maxLag.get();
+
+        if (lag > TimeUnit.MILLISECONDS.toNanos(LAG_WARNING_MILLIS)
+                && now - lastWarning > TimeUnit.MILLISECONDS.toNanos(LAG_WARNING_INTERVAL_MILLIS)) {
+            lastWarning = now;
+            Log.warning("bot scheduler is lagging %d ms behind (%d bots).",
+                    TimeUnit.NANOSECONDS.toMillis(lag), tasks.size() + 1);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of a game in progress, to resume the game if the process dies.
+ * <p>
+ * The dealer captures the game into a preallocated checkpoint between two of its ticks (copying a few hundred ints, so
+ * the dealer pauses for microseconds), and a background thread encodes and writes it while the game goes on. The dealer
+ * does not touch the checkpoint again until the write is done, and skips checkpoints that come due before then.
+ * <p>
+ * File layout (big endian): magic, version, featureCount, featureSize, players, tableSize, deck length (ints),
+ * deck[deck length] (ints, top first), the card in every slot (ints, -1 if empty), for every player: score, penalties
+ * (ints), remaining freeze (long, milliseconds), state (byte, see Player.State) and a token flag for every slot
+ * (bytes), then the elapsed time of the
+ * round and of the game (longs, milliseconds) and a CRC32 of everything before it (long). The file is replaced
+ * atomically, so a crash while writing leaves the previous checkpoint.
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x5345544B; // "SETK"
+    private static final int VERSION = 1;
+
+    /**
+     * Writes the checkpoints (a single daemon thread, created on first use).
+     */
+    private static ExecutorService writer;
+
+    private final Config config;
+
+    /**
+     * The deck (top first), the table, and every player's score, penalties, remaining freeze (in milliseconds) and
+     * state.
+     */
+    final int[] deck;
+    int deckLength;
+    final Table.Snapshot table;
+    final int[] scores;
+    final int[] penalties;
+    final long[] frozen;
+    final Player.State[] states;
+
+    /**
+     * The time elapsed since the round (countdown) and the game started, in milliseconds.
+     */
+    long roundElapsed;
+    long gameElapsed;
+
+    /**
+     * The encoded checkpoint (reused for every write).
+     */
+    private final ByteBuffer encoded;
+
+    /**
+     * True while the checkpoint is being written (the dealer must not capture into it).
+     */
+    private volatile boolean writing;
+
+    /**
+     * @param config - the game configuration.
+     * @param table  - the table of the game.
+     */
+    Checkpoint(Config config, Table table) {
+        this.config = config;
+        deck = new int[config.deckSize];
+        this.table = new Table.Snapshot(table);
+        scores = new int[config.players];
+        penalties = new int[config.players];
+        frozen = new long[config.players];
+        states = new Player.State[config.players];
+        encoded = ByteBuffer.allocate(size(config, config.deckSize));
+    }
+
+    private static int size(Config config, int deckLength) {
+        return 7 * Integer.BYTES + deckLength * Integer.BYTES + config.tableSize * Integer.BYTES
+                + config.players * (2 * Integer.BYTES + Long.BYTES + 1 + config.tableSize) + 3 * Long.BYTES;
+    }
+
+    /**
+     * @return - the file checkpoints are written to, or null if checkpoints are disabled.
+     */
+    static Path file(Config config) {
+        return config.checkpointMillis > 0 && !config.checkpointFile.isEmpty() ? Paths.get(config.checkpointFile) : null;
+    }
+
+    /**
+     * @return - true iff the dealer can capture into the checkpoint (the previous one was written).
+     */
+    boolean ready() {
+        return !writing;
+    }
+
+    /**
+     * Writes the captured checkpoint in the background.
+     */
+    void write() {
+        writing = true;
+        writer().execute(() -> {
+            try {
+                Path file = file(config);
+                if (file != null) write(file);
+            } catch (IOException e) {
+                Log.warning("cannot write checkpoint (%s).", e);
+            } finally {
+                writing = false;
+            }
+        });
+    }
+
+    /**
+     * Encodes the checkpoint and replaces the file with it.
+     *
+     * @param file - the file.
+     */
+    void write(Path file) throws IOException {
+        ByteBuffer buffer = encode();
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ByteBuffer encode() {
+        ByteBuffer buffer = encoded;
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(config.featureCount).putInt(config.featureSize)
+                .putInt(config.players).putInt(config.tableSize).putInt(deckLength);
+        for (int i = 0; i < deckLength; ++i)
+            buffer.putInt(deck[i]);
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            buffer.putInt(table.card(slot));
+        for (int player = 0; player < config.players; ++player) {
+            buffer.putInt(scores[player]).putInt(penalties[player]).putLong(frozen[player])
+                    .put((byte) states[player].ordinal());
+            for (int slot = 0; slot < config.tableSize; ++slot)
+                buffer.put((byte) (table.hasToken(player, slot) ? 1 : 0));
+        }
+        buffer.putLong(roundElapsed).putLong(gameElapsed);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The state of a game read from a checkpoint file.
+     */
+    public static final class Saved {
+
+        final List<Integer> deck = new ArrayList<>();
+        final int[] slots;
+        final boolean[][] tokens;
+        final int[] scores;
+        final int[] penalties;
+        final long[] frozen;
+        final Player.State[] states;
+        final long roundElapsed;
+        final long gameElapsed;
+
+        private Saved(Config config, ByteBuffer buffer) {
+            int deckLength = buffer.getInt();
+            for (int i = 0; i < deckLength; ++i)
+                deck.add(buffer.getInt());
+            slots = new int[config.tableSize];
+            for (int slot = 0; slot < slots.length; ++slot)
+                slots[slot] = buffer.getInt();
+            tokens = new boolean[config.players][config.tableSize];
+            scores = new int[config.players];
+            penalties = new int[config.players];
+            frozen = new long[config.players];
+            states = new Player.State[config.players];
+            for (int player = 0; player < config.players; ++player) {
+                scores[player] = buffer.getInt();
+                penalties[player] = buffer.getInt();
+                frozen[player] = buffer.getLong();
+                states[player] = Player.State.values()[buffer.get()];
+                for (int slot = 0; slot < config.tableSize; ++slot)
+                    tokens[player][slot] = buffer.get() != 0;
+            }
+            roundElapsed = buffer.getLong();
+            gameElapsed = buffer.getLong();
+        }
+    }
+
+    /**
+     * Reads the checkpoint of an unfinished game.
+     *
+     * @param config - the game configuration.
+     * @return       - the saved game, or null if there is none (or it does not match the configuration).
+     */
+    public static Saved read(Config config) {
+        Path file = file(config);
+        if (file == null || !Files.isRegularFile(file)) return null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.remaining() < 7 * Integer.BYTES + Long.BYTES) return null;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.limit() - Long.BYTES);
+            if (buffer.getLong(buffer.limit() - Long.BYTES) != crc.getValue()
+                    || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getInt() != config.featureCount || buffer.getInt() != config.featureSize
+                    || buffer.getInt() != config.players || buffer.getInt() != config.tableSize
+                    || buffer.limit() != size(config, buffer.getInt(buffer.position()))) {
+                Log.warning("ignoring checkpoint %s (it does not match the configuration).", file);
+                return null;
+            }
+            return new Saved(config, buffer);
+        } catch (IOException e) {
+            Log.warning("cannot read checkpoint %s (%s).", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the checkpoint file when the game is over (after the write in progress, if any).
+     */
+    void delete() {
+        Path file = file(config);
+        if (file == null) return;
+        while (writing)
+            try { Thread.sleep(1); } catch (InterruptedException ignored) {}
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Log.warning("cannot delete checkpoint %s (%s).", file, e);
+        }
+    }
+
+    private static synchronized ExecutorService writer() {
+        if (writer == null)
+            writer = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "checkpoints");
+                thread.setDaemon(true);
+                return thread;
+            });
+        return writer;
+    }
+}
@@ -0,0 +1,217 @@
+package bguspl.set.ex;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the players' claims over to the dealer: any player thread queues a claim and wakes the dealer up, and the
+ * dealer thread (a single consumer) waits for claims and takes them in the order they were made.
+ * <p>
+ * The implementations differ in how they synchronize, so the handoff can be measured and chosen (see the ClaimHandoff
+ * setting and ClaimHandoffBenchmark):
+ * <pre>
+ *   Monitor - a queue guarded by the handoff's monitor, with wait/notifyAll.
+ *   Parking - a lock-free linked queue, and the dealer thread is parked/unparked.
+ *   Ring    - a preallocated lock-free ring of player ids (does not allocate), and the dealer thread is parked/unparked.
+ * </pre>
+ */
+public interface ClaimHandoff {
+
+    /**
+     * Queues a claim and wakes the dealer up (called by the player threads).
+     *
+     * @param player - the id of the player that claimed a set.
+     */
+    void claim(int player);
+
+    /**
+     * Takes the oldest claim (called by the dealer thread).
+     *
+     * @return - the id of the player that made the claim, or -1 if there are no claims.
+     */
+    int poll();
+
+    /**
+     * Waits until there is a claim or the timeout passes (called by the dealer thread).
+     *
+     * @param timeoutNanos - the maximum time to wait, in nanoseconds.
+     */
+    void await(long timeoutNanos);
+
+    /**
+     * @return - the number of queued claims (approximately, while claims are made).
+     */
+    int size();
+
+    /**
+     * Creates a handoff.
+     *
+     * @param name    - the implementation: Monitor, Parking or Ring (case insensitive).
+     * @param players - the number of players.
+     * @return        - the handoff.
+     * @throws IllegalArgumentException - if the name is unknown.
+     */
+    static ClaimHandoff create(String name, int players) {
+        switch (name.trim().toLowerCase()) {
+            case "monitor": return new Monitor();
+            case "parking": return new Parking();
+            case "ring": return new Ring(players);
+            default: throw new IllegalArgumentException("unknown claim handoff " + name);
+        }
+    }
+
+    /**
+     * A queue guarded by the handoff's monitor: the dealer waits on the monitor and the players notify it.
+     */
+    final class Monitor implements ClaimHandoff {
+
+        private final ArrayDeque<Integer> claims = new ArrayDeque<>();
+
+        @Override
+        public synchronized void claim(int player) {
+            claims.add(player);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized int poll() {
+            Integer player = claims.poll();
+            return player == null ? -1 : player;
+        }
+
+        @Override
+        public synchronized void await(long timeoutNanos) {
+            if (claims.isEmpty())
+                try { TimeUnit.NANOSECONDS.timedWait(this, timeoutNanos); } catch (InterruptedException ignored) {}
+        }
+
+        @Override
+        public synchronized int size() {
+            return claims.size();
+        }
+    }
+
+    /**
+     * A lock-free linked queue: the players unpark the dealer thread after queueing a claim.
+     */
+    final class Parking implements ClaimHandoff {
+
+        private final Queue<Integer> claims = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The thread that waits for claims (set by the first call to await).
+         */
+        private volatile Thread dealer;
+
+        @Override
+        public void claim(int player) {
+            claims.add(player);
+            Thread dealer = this.dealer;
+            if (dealer != null)
+                LockSupport.unpark(dealer);
+        }
+
+        @Override
+        public int poll() {
+            Integer player = claims.poll();
+            return player == null ? -1 : player;
+        }
+
+        @Override
+        public void await(long timeoutNanos) {
+            if (dealer == null) dealer = Thread.currentThread();
+            if (claims.isEmpty())
+                LockSupport.parkNanos(this, timeoutNanos);
+        }
+
+        @Override
+        public int size() {
+            return claims.size();
+        }
+    }
+
+    /**
+     * A bounded, lock-free ring of player ids for many producers and a single consumer: every slot has a sequence
+     * number that tells whether it is free for the claim of a given round or holds it. Nothing is allocated after
+     * construction. If the ring is full (which takes more pending claims than twice the number of players) a player
+     * yields until the dealer takes a claim.
+     */
+    final class Ring implements ClaimHandoff {
+
+        private final int[] players;
+        private final AtomicLongArray sequences;
+        private final int mask;
+
+        /**
+         * The number of claims queued (by any player) and taken (by the dealer).
+         */
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        /**
+         * The thread that waits for claims (set by the first call to await).
+         */
+        private volatile Thread dealer;
+
+        /**
+         * @param players - the number of players.
+         */
+        public Ring(int players) {
+            int capacity = Integer.highestOneBit(Math.max(2, 2 * players) - 1) << 1;
+            this.players = new int[capacity];
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; ++i)
+                sequences.set(i, i);
+            mask = capacity - 1;
+        }
+
+        @Override
+        public void claim(int player) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) (position & mask);
+                long sequence = sequences.get(index);
+                if (sequence == position) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        players[index] = player;
+                        sequences.lazySet(index, position + 1);
+                        break;
+                    }
+                } else if (sequence < position) {
+                    Thread.yield();
+                }
+            }
+            Thread dealer = this.dealer;
+            if (dealer != null)
+                LockSupport.unpark(dealer);
+        }
+
+        @Override
+        public int poll() {
+            long position = head;
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) return -1;
+            int player = players[index];
+            sequences.lazySet(index, position + mask + 1);
+            head = position + 1;
+            return player;
+        }
+
+        @Override
+        public void await(long timeoutNanos) {
+            if (dealer == null) dealer = Thread.currentThread();
+            if (size() == 0)
+                LockSupport.parkNanos(this, timeoutNanos);
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.max(0, tail.get() - head);
+        }
+    }
+}
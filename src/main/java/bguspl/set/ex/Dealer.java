@@ -1,15 +1,24 @@
 package bguspl.set.ex;
 
+import bguspl.set.Analytics;
 import bguspl.set.Env;
-
-import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import bguspl.set.GameEvents;
+import bguspl.set.GameHistory;
+import bguspl.set.Log;
+import bguspl.set.UserInterface;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
- * This class manages the dealer's threads and data
+ * This class manages the dealer's threads and data.
+ * <p>
+ * The rules of the game are in the GameEngine: the dealer thread drives it with the start of the game, the ticks of
+ * its timer and the players' claims, and the player threads drive it with their key presses (see press). The steps are
+ * taken under the lock of the game state, and their effects are applied to the table (which shows them).
  */
 public class Dealer implements Runnable {
 
@@ -18,7 +27,25 @@ public class Dealer implements Runnable {
      */
     private final Env env;
 
-    private long startTime;
+    /**
+     * The time the game started, and the history the game is recorded in when it ends (null if it is not recorded).
+     */
+    private long gameStartTime;
+    private final GameHistory history;
+
+    /**
+     * The performance statistics of the players (null if they are disabled).
+     */
+    private volatile Analytics analytics;
+
+    /**
+     * The checkpoint the game is captured into every config.checkpointMillis (null if checkpoints are disabled), the
+     * time of the next one, and the saved game to resume (null for a new game).
+     */
+    private final Checkpoint checkpoint;
+    private long nextCheckpoint;
+    private Checkpoint.Saved saved;
+
     /**
      * Game entities.
      */
@@ -26,9 +53,13 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The rules of the game, the state of the game (whose lock guards every step), the event fed to the engine (reused
+     * under the lock) and the effects of the steps.
      */
-    private final List<Integer> deck;
+    private final GameEngine engine;
+    private final GameState game;
+    private final GameEngine.Event event = new GameEngine.Event(GameEngine.Event.Kind.START, -1, -1, 0);
+    private final TableEffects effects = new TableEffects();
 
     /**
      * True iff game should be terminated due to an external event.
@@ -36,25 +67,57 @@ public class Dealer implements Runnable {
     private volatile boolean terminate;
 
     /**
-     * The time when the dealer needs to reshuffle the deck due to turn timeout.
+     * The players that claimed a set and wait for the dealer's verdict, in the order of their claims.
      */
-    private long reshuffleTime = Long.MAX_VALUE;
+    private final ClaimHandoff claims;
 
-    private BlockingQueue<Player> playersToCheck;
+    /**
+     * The players' threads.
+     */
+    private final Thread[] playerThreads;
 
-    private Dictionary<Player,Long> playerToPenaltyTime;
-    private boolean placingCards;
+    /**
+     * True while the dealer moves cards (key presses are dropped meanwhile).
+     */
+    private volatile boolean placingCards;
 
     public Dealer(Env env, Table table, Player[] players) {
+        this(env, table, players, IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList()));
+    }
+
+    /**
+     * Resumes a saved game.
+     *
+     * @param env     - the game environment objects.
+     * @param table   - the table object.
+     * @param players - the players.
+     * @param saved   - the saved game (see Checkpoint.read).
+     */
+    public Dealer(Env env, Table table, Player[] players, Checkpoint.Saved saved) {
+        this(env, table, players, saved.deck);
+        this.saved = saved;
+    }
+
+    /**
+     * Constructor for testing.
+     *
+     * @param env     - the game environment objects.
+     * @param table   - the table object.
+     * @param players - the players.
+     * @param deck    - the cards in the deck, in the order they are dealt.
+     */
+    Dealer(Env env, Table table, Player[] players, List<Integer> deck) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        reshuffleTime = 60000;
-        playersToCheck = new LinkedBlockingQueue<>();
-        playerToPenaltyTime = new Hashtable<>();
+        engine = new GameEngine(env.config, env.util);
+        game = new GameState(env.config, players.length, deck.stream().mapToInt(Integer::intValue).toArray(),
+                System.nanoTime());
+        claims = ClaimHandoff.create(env.config.claimHandoff, players.length);
+        history = GameHistory.of(env.config);
+        checkpoint = Checkpoint.file(env.config) != null ? new Checkpoint(env.config, table) : null;
+        playerThreads = new Thread[players.length];
         placingCards = true;
-
     }
 
     /**
@@ -62,233 +125,353 @@ public class Dealer implements Runnable {
      */
     @Override
     public void run() {
-
-        System.out.printf("Info: Thread %s starting.%n", Thread.currentThread().getName());
-        placeCardsOnTable();
-        for (Player p : this.players) {
-            playerToPenaltyTime.put(p, (long) 0);
-        }
+        Log.info("Thread %s starting.", Thread.currentThread().getName());
+        gameStartTime = System.currentTimeMillis() - (saved != null ? saved.gameElapsed : 0);
+        analytics = Analytics.of(env.config, gameStartTime);
+        if (saved != null) restore();
+        else start();
+        nextCheckpoint = System.currentTimeMillis() + env.config.checkpointMillis;
 
         for (Player p :players){
-            Thread t = new Thread(p,p.id+"");
-            t.start();
+            playerThreads[p.id] = new Thread(p,p.id+"");
+            playerThreads[p.id].start();
         }
-        while (!shouldFinish()) {
-            placingCards = true;
-            placeCardsOnTable();
-
-            startTime = System.currentTimeMillis();
-            timerLoop();
-            //Arrays.stream(players).forEach(Player::clearTokens);
-            updateTimerDisplay(false);
-            removeAllCardsFromTable();
+        while (!terminate && !game.finished()) {
+            sleepUntilWokenOrTimeout();
+            tick();
+        }
+        if (terminate && checkpoint != null) {
+            // the game was closed: save where it stopped to resume it later
+            checkpoint(true);
+            try {
+                checkpoint.write(Checkpoint.file(env.config));
+            } catch (IOException e) {
+                Log.warning("cannot write checkpoint (%s).", e);
+            }
         }
-        announceWinners();
-        System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
+        if (!game.finished()) step(GameEngine.Event.Kind.END, -1, System.currentTimeMillis());
+        // a game that ended (rather than was closed) cannot be resumed
+        if (checkpoint != null && !terminate) checkpoint.delete();
+        terminatePlayers();
+        Log.info("Thread %s terminated.", Thread.currentThread().getName());
     }
 
     /**
-     * The inner loop of the dealer thread that runs as long as the countdown did not time out.
+     * Starts a new game: the table is dealt.
      */
-    private void timerLoop() {
-        while (!terminate && System.currentTimeMillis()-startTime < reshuffleTime) {
-            try{sleepUntilWokenOrTimeout();}
-            catch (Exception e){throw new IllegalArgumentException(e.getMessage());}
-            updateTimerDisplay(false);
-            placeCardsOnTable();
-            try {
+    void start() {
+        step(GameEngine.Event.Kind.START, -1, System.currentTimeMillis());
+    }
 
-               tokensValidation();
-               // System.out.println("dealer validatis cards");
-            }
-            catch (InterruptedException e) {
-                System.out.println(e.getMessage());
+    /**
+     * Restores the game, the table and the players from the saved game.
+     */
+    private void restore() {
+        synchronized (game) {
+            game.restore(env.config, saved, System.currentTimeMillis());
+            for (int slot = 0; slot < table.slotToCard.length; ++slot)
+                if (game.card(slot) >= 0)
+                    table.restoreCard(game.card(slot), slot);
+            for (Player p : players) {
+                for (int slot = 0; slot < table.slotToCard.length; ++slot)
+                    if (game.hasToken(p.id, slot))
+                        table.placeToken(p.id, slot);
+                env.ui.setScore(p.id, game.score(p.id));
             }
-            for (Player p : players){
-                //System.out.println("players loop");
-
-                if (playerToPenaltyTime.get(p) > System.currentTimeMillis())
-                    env.ui.setFreeze(p.id,playerToPenaltyTime.get(p)-System.currentTimeMillis());
-                else {
-                    //System.out.println("before sync");
-                    env.ui.setFreeze(p.id,0);
-                    synchronized(p){
-                     //   System.out.println("before notify player");
-                        p.notify();
-                    }
-                }
+        }
+        placingCards = false;
+        for (Player p : players)
+            p.restore(game.frozenUntil(p.id), game.claimed(p.id));
+        saved = null;
+    }
+
+    /**
+     * Captures the game into the checkpoint if one is due (and the previous one was written).
+     *
+     * @param now - true to capture the game even if no checkpoint is due (waiting for the previous write).
+     * @return    - true iff the game was captured.
+     */
+    private boolean checkpoint(boolean now) {
+        long time = System.currentTimeMillis();
+        if (!now && (time < nextCheckpoint || !checkpoint.ready())) return false;
+        while (!checkpoint.ready())
+            try { Thread.sleep(1); } catch (InterruptedException ignored) {}
+
+        nextCheckpoint = time + env.config.checkpointMillis;
+        synchronized (game) {
+            checkpoint.deckLength = game.deckSize();
+            for (int i = 0; i < checkpoint.deckLength; ++i)
+                checkpoint.deck[i] = game.deckCard(i);
+            table.snapshot(checkpoint.table);
+            for (Player p : players) {
+                checkpoint.scores[p.id] = game.score(p.id);
+                checkpoint.penalties[p.id] = game.penalties(p.id);
+                checkpoint.frozen[p.id] = Math.max(game.frozenUntil(p.id) - time, 0);
+                checkpoint.states[p.id] = game.claimed(p.id) ? Player.State.AWAITING_VERDICT : p.state();
             }
-            terminate = zeroSetsLeft();
+            checkpoint.roundElapsed = time - (game.deadline() - Math.max(env.config.turnTimeoutMillis, 0));
         }
+        checkpoint.gameElapsed = time - gameStartTime;
+        return true;
     }
 
-    private boolean zeroSetsLeft() {
-        List<Integer> currentSlots = Arrays.asList(table.slotToCard);
-        currentSlots = currentSlots.parallelStream().filter(Objects::nonNull).collect(Collectors.toList()); //remove null values
-        return env.util.findSets(deck, 1).size() == 0 && env.util.findSets(currentSlots,1).size() == 0 ;
+    /**
+     * Terminates the players' threads (in reverse order of their creation) and waits for them to finish.
+     */
+    private void terminatePlayers() {
+        for (int i = players.length - 1; i >= 0; --i) {
+            players[i].terminate();
+            try { playerThreads[i].join(); } catch (InterruptedException ignored) {}
+        }
     }
 
-    private void tokensValidation() throws InterruptedException {
-       // System.out.println("enters token val");
-        if (playersToCheck.size()>0) {
-            Player p = playersToCheck.take();
-            if(p.tokenToSlots().size() == 3) {
-                if (isSet(p.tokenToSlots())) {
-                    Vector<Integer> slotsToRemove = new Vector<>();
-                    slotsToRemove.addAll(p.tokenToSlots());
-                    removeCardsBySlots(slotsToRemove);
-                    p.point();
-                    updateTimerDisplay(true);
-                    playerToPenaltyTime.put(p, System.currentTimeMillis() + 1000);
-
-                } else {
-                    p.penalty();
-                    playerToPenaltyTime.put(p, System.currentTimeMillis() + 3000);
-                }
-                try {
-                    placeCardsOnTable();
-                } catch (Exception e) {
-                    throw e;
+    /**
+     * A single iteration of the dealer loop (after waking up): judges the claims, then lets time pass in the game
+     * (which deals, reshuffles and ends the game when it is time to). When no player claimed a set and no card
+     * moved this does not allocate.
+     */
+    void tick() {
+        tokensValidation();
+        long now = System.currentTimeMillis();
+        synchronized (game) {
+            GameEvents.Reshuffle reshuffle = null;
+            if (engine.reshuffleDue(game, now)) {
+                reshuffle = new GameEvents.Reshuffle();
+                reshuffle.begin();
+            }
+            step(GameEngine.Event.Kind.TICK, -1, now);
+            if (reshuffle != null) {
+                reshuffle.end();
+                if (reshuffle.shouldCommit()) {
+                    reshuffle.cards = game.reshuffled();
+                    reshuffle.commit();
                 }
             }
-
         }
+        if (checkpoint != null && checkpoint(false)) checkpoint.write();
     }
 
-
-
-
-
     /**
-     * Called when the game should be terminated due to an external event.
+     * Applies an event of the dealer to the game, and shows the hints if cards were moved.
+     *
+     * @param kind   - the kind of the event.
+     * @param player - the player of the event (-1 if none).
+     * @param time   - the time of the event.
      */
-    public void terminate() {
-        terminate = true;
+    private void step(GameEngine.Event.Kind kind, int player, long time) {
+        synchronized (game) {
+            engine.step(game, event.set(kind, player, -1, time), effects);
+        }
+        if (placingCards) {
+            placingCards = false;
+            if (env.config.hints) table.hints();
+        }
     }
 
     /**
-     * Check if the game should be terminated or the game end conditions are met.
+     * Applies a player's key press to the game (on the player's thread).
      *
-     * @return true iff the game should be finished.
+     * @param player - the player id.
+     * @param slot   - the slot corresponding to the key pressed.
+     * @return       - the number of tokens the player has after the press, or -1 if the press claimed a set.
      */
-    private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0 ;
+    int press(int player, int slot) {
+        synchronized (game) {
+            engine.step(game, event.set(GameEngine.Event.Kind.KEY, player, slot, System.currentTimeMillis()), effects);
+            return game.claimed(player) ? -1 : game.tokens(player);
+        }
     }
 
-
     /**
-     * Check if any cards can be removed from the deck and placed on the table.
+     * @param player - the player id.
+     * @return       - the number of tokens the player has on the table.
      */
-    private void placeCardsOnTable(){
-            List<Integer> slotNumbers = new ArrayList<>();
-            for (int i = 0; i < 12; i++)
-                slotNumbers.add(i);
-            while (!slotNumbers.isEmpty()) {
-                Random rand = new Random();
-                int index = rand.nextInt(slotNumbers.size());
-                Integer j = slotNumbers.get(index);
-                slotNumbers.remove(j);
-                if (table.slotToCard[j] == null) {
-                    Random random = new Random();
-                    //deck.remove(random.nextInt(deck.size())),j
-                    if (!deck.isEmpty()) {
-
-                        table.placeCard(deck.remove(0), j);
-                    }
-                }
-
+    int tokens(int player) {
+        synchronized (game) {
+            return game.tokens(player);
         }
-            placingCards = false;
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * @param player - the player id.
+     * @return       - the player's score.
      */
-    private  void  sleepUntilWokenOrTimeout() throws InterruptedException {
-        // TODO implement
-        synchronized (this) {
-            this.wait(50);
+    int score(int player) {
+        synchronized (game) {
+            return game.score(player);
         }
     }
 
     /**
-     * Reset and/or update the countdown and the countdown display.
+     * @param player - the player id.
+     * @return       - the number of times the player was penalized.
      */
-    private void updateTimerDisplay(boolean reset) {
-        long elapsed =60000- (System.currentTimeMillis()-startTime);
-        boolean warn = false;
-        if (reset) {
-            elapsed = 60000;
-            startTime = System.currentTimeMillis();
+    int penalties(int player) {
+        synchronized (game) {
+            return game.penalties(player);
         }
-        else if(elapsed<=10000)
-            warn = true;
-
-        env.ui.setCountdown(Math.max(elapsed,0),warn);
     }
 
     /**
-     * Returns all the cards from the table to the deck.
+     * Judges the claims of the players in the queue and sends each player its verdict.
      */
-    private void removeAllCardsFromTable() {
-        placingCards = true;
-        for (Player p : players){
-            p.clearTokens(Arrays.asList(0,1,2,3,4,5,6,7,8,9,10,11));
-        }
-        for(int i = 0; i < table.slotToCard.length; i++) {
-            if (table.slotToCard[i] != null) {
-                deck.add(table.slotToCard[i]);
-                table.removeCard(i);
+    private void tokensValidation() {
+        int claimant;
+        while ((claimant = claims.poll()) >= 0) {
+            Player p = players[claimant];
+            GameEvents.Verdict event = new GameEvents.Verdict();
+            event.begin();
+            long reactionNanos = System.nanoTime() - p.reactionStartNanos();
+            Analytics.Outcome outcome;
+            long frozenUntil;
+            synchronized (game) {
+                int score = game.score(p.id), penalties = game.penalties(p.id);
+                step(GameEngine.Event.Kind.CLAIM, p.id, System.currentTimeMillis());
+                // a claim whose tokens changed since it was made (their cards were taken or reshuffled) is dropped
+                outcome = game.score(p.id) > score ? Analytics.Outcome.POINT
+                        : game.penalties(p.id) > penalties ? Analytics.Outcome.PENALTY : Analytics.Outcome.CANCELLED;
+                frozenUntil = game.frozenUntil(p.id);
+            }
+            p.verdict(frozenUntil);
+            long freezeMillis = outcome == Analytics.Outcome.POINT ? Math.max(0, env.config.pointFreezeMillis)
+                    : outcome == Analytics.Outcome.PENALTY ? Math.max(0, env.config.penaltyFreezeMillis) : 0;
+            if (analytics != null)
+                analytics.verdict(p.id, outcome, reactionNanos, freezeMillis, System.currentTimeMillis());
+            event.end();
+            if (event.shouldCommit()) {
+                event.player = p.id;
+                event.outcome = outcome.name().toLowerCase();
+                event.commit();
             }
         }
-        placingCards = false;
+    }
 
+    /**
+     * Called when the game should be terminated due to an external event.
+     */
+    public void terminate() {
+        terminate = true;
+    }
 
+    /**
+     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     */
+    private void sleepUntilWokenOrTimeout() {
+        claims.await(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /**
+     * Displays the winners and records the game in the history (unless it was closed before it ended, in which case
+     * it is recorded when its resumed game ends).
+     *
+     * @param winners - the ids of the winners.
+     */
+    private void announceWinners(int[] winners) {
+        env.ui.announceWinner(winners);
+        if (analytics != null) analytics.log(System.currentTimeMillis());
+
+        if (history != null && !terminate) {
+            int[] scores = new int[players.length];
+            int[] penalties = new int[players.length];
+            for (Player p : players) {
+                scores[p.id] = game.score(p.id);
+                penalties[p.id] = game.penalties(p.id);
+            }
+            history.appendLater(env.config, gameStartTime, System.currentTimeMillis() - gameStartTime, scores,
+                    penalties, winners);
+        }
     }
 
     /**
-     * Check who is/are the winner/s and displays them.
+     * The effects of the engine's steps (under the game's lock): the cards and tokens are changed on the table, which
+     * shows them, and the rest goes to the user interface.
      */
-    private void announceWinners() {
-        int maxPoint = 0;
+    private final class TableEffects implements UserInterface {
 
-        for (Player p : players) {
-            if (p.getScore() > maxPoint)
-                maxPoint = p.getScore();
+        @Override
+        public void placeCard(int card, int slot) {
+            placingCards = true;
+            table.placeCard(card, slot);
         }
-        List<Integer> winners = new LinkedList();
-        for (Player p : players){
-            if (p.getScore() == maxPoint)
-                winners.add(p.id);
+
+        @Override
+        public void removeCard(int slot) {
+            placingCards = true;
+            table.removeCard(slot);
         }
-        int[] winnersArray = new int[winners.size()];
-        for (int i = 0; i < winnersArray.length;i++){
-            winnersArray[i] = winners.get(i);
+
+        @Override
+        public void setCountdown(long millies, boolean warn) {
+            env.ui.setCountdown(millies, warn);
         }
-        env.ui.announceWinner(winnersArray);
 
-    }
-    private boolean isSet(List<Integer> setToTest) {
-        if(setToTest.size()!= 3)
-            return false;
-        int[] setToTestArray = new int[3];
-        for (int i = 0; i < setToTest.size(); i++)
-            setToTestArray[i] = table.slotToCard[setToTest.get(i)];
-        return env.util.testSet(setToTestArray);
-    }
-    private void removeCardsBySlots(Vector<Integer> slots){
-        for (int i = 0; i < slots.size(); i ++) {
-            table.removeCard(slots.get(i));
+        @Override
+        public void setElapsed(long millies) {
+            env.ui.setElapsed(millies);
+        }
+
+        @Override
+        public void setScore(int player, int score) {
+            env.ui.setScore(player, score);
+        }
+
+        @Override
+        public void setFreeze(int player, long millies) {
+            env.ui.setFreeze(player, millies);
+        }
+
+        @Override
+        public void placeToken(int player, int slot) {
+            table.placeToken(player, slot);
+        }
+
+        @Override
+        public void removeTokens() {
+            env.ui.removeTokens();
+        }
+
+        @Override
+        public void removeTokens(int slot) {
+            // the tokens are removed from the table with the card, the players only update their state
+            env.ui.removeTokens(slot);
+            for (Player p : players)
+                p.tokensTaken();
+        }
+
+        @Override
+        public void removeToken(int player, int slot) {
+            table.removeToken(player, slot);
         }
-        for (Player p:players) {
-            p.clearTokens(slots);
+
+        @Override
+        public void announceWinner(int[] players) {
+            announceWinners(players);
         }
     }
+
+    /**
+     * Queues a player's claim for the dealer to check and wakes the dealer up.
+     *
+     * @param p - the player that claimed a set.
+     */
     public void addToPlayersQueue(Player p){
-        playersToCheck.add(p);
+        claims.claim(p.id);
+        GameEvents.ClaimEnqueued event = new GameEvents.ClaimEnqueued();
+        if (event.shouldCommit()) {
+            event.player = p.id;
+            event.queued = claims.size();
+            event.commit();
+        }
     }
 
 
+    /**
+     * @return - the performance statistics of the players, or null if they are disabled (or the game did not start).
+     */
+    public Analytics analytics() {
+        return analytics;
+    }
+
     public boolean isPlacingCards() {
         return placingCards;
     }
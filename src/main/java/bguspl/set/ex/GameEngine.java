@@ -0,0 +1,484 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.SetIndex;
+import bguspl.set.UserInterface;
+import bguspl.set.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rules of the game as a pure state machine: step(state, event, effects) changes the state according to the
+ * event and reports what happened as calls to the effects (the same calls the user interface receives).
+ * The engine has no threads, sleeps or clocks (the time is part of every event, and the random order in which slots
+ * are dealt is part of the state), so the same sequence of events always leads to the same state. Drivers feed it
+ * events: the dealer and the players of a real game (see Dealer), a simulation or a test from a loop.
+ * <p>
+ * An engine keeps scratch buffers and is not thread safe: drivers that share an engine step it under a single lock.
+ */
+public class GameEngine {
+
+    /**
+     * An event that drives the game. Events can be reused (see the set method).
+     */
+    public static final class Event {
+
+        public enum Kind {
+            /** The game starts: the table is dealt. */
+            START,
+            /** Time passes: countdowns and freezes are updated, empty slots are dealt and the table is reshuffled when
+             *  its time is up (or it has no set and the rules do not wait). */
+            TICK,
+            /** A player pressed the key of a slot. Placing the last token of a set claims it. */
+            KEY,
+            /** The player's claim is judged: a point, a penalty, or nothing if its tokens changed meanwhile. */
+            CLAIM,
+            /** The game is closed before it ended: the winners so far are announced. */
+            END
+        }
+
+        private Kind kind;
+        private int player;
+        private int slot;
+        private long time;
+
+        public Event(Kind kind, int player, int slot, long time) {
+            set(kind, player, slot, time);
+        }
+
+        /**
+         * Reuses the event for another occurrence.
+         *
+         * @return - this event.
+         */
+        public Event set(Kind kind, int player, int slot, long time) {
+            this.kind = kind;
+            this.player = player;
+            this.slot = slot;
+            this.time = time;
+            return this;
+        }
+    }
+
+    /**
+     * The game configuration.
+     */
+    private final Config config;
+
+    /**
+     * The game utilities (used to test and find the sets), and set completion lookup tables.
+     */
+    private final Util util;
+    private final SetIndex setIndex;
+
+    /**
+     * Scratch buffers: the cards of a claim, a list of cards to search for sets, the order in which slots are dealt,
+     * and the cards, present deck cards, combination and partial set of findSetCompletion.
+     */
+    private final int[] claim;
+    private final List<Integer> cards;
+    private final int[] slotOrder;
+    private final int[] candidates;
+    private final boolean[] present;
+    private final int[] combination;
+    private final int[] partial;
+
+    /**
+     * The last set found by findSetCompletion (table cards and the deck cards that complete them).
+     */
+    private final int[] completion;
+
+    public GameEngine(Config config, Util util) {
+        this.config = config;
+        this.util = util;
+        setIndex = new SetIndex(config);
+        claim = new int[config.featureSize];
+        cards = new ArrayList<>(config.deckSize);
+        slotOrder = new int[config.tableSize];
+        candidates = new int[config.deckSize];
+        present = new boolean[config.deckSize];
+        combination = new int[config.featureSize];
+        partial = new int[config.featureSize];
+        completion = new int[config.featureSize];
+    }
+
+    /**
+     * Applies an event to the state.
+     *
+     * @param state   - the state (changed in place).
+     * @param event   - the event.
+     * @param effects - receives the effects of the event.
+     */
+    public void step(GameState state, Event event, UserInterface effects) {
+        if (state.finished) return;
+        state.now = event.time;
+        switch (event.kind) {
+            case START:
+                deal(state, effects, config.guaranteedSets);
+                resetDeadline(state);
+                checkEnd(state, effects);
+                break;
+            case TICK:
+                tick(state, effects);
+                break;
+            case KEY:
+                key(state, event.player, event.slot, effects);
+                break;
+            case CLAIM:
+                judge(state, event.player, effects);
+                break;
+            case END:
+                state.finished = true;
+                effects.announceWinner(winners(state.scores));
+                break;
+        }
+    }
+
+    /**
+     * @param state - the state.
+     * @param time  - the time of the next tick.
+     * @return      - true iff a tick at that time reshuffles the table.
+     */
+    public boolean reshuffleDue(GameState state, long time) {
+        if (state.finished) return false;
+        updateSets(state);
+        if (config.turnTimeoutMillis > 0)
+            // in guaranteed set dealing mode a full table without a set cannot change until the countdown ends
+            return time >= state.deadline || config.guaranteedSets && state.deckSize > 0 && !state.tableHasSet
+                    && cardsOnTable(state) == state.slotToCard.length;
+        // without a countdown the table is reshuffled as soon as it has no set
+        return !state.tableHasSet && state.deckSize > 0;
+    }
+
+    private void tick(GameState state, UserInterface effects) {
+        if (reshuffleDue(state, state.now))
+            reshuffle(state, effects);
+        else
+            deal(state, effects, config.guaranteedSets);
+
+        for (int player = 0; player < state.players(); ++player)
+            effects.setFreeze(player, Math.max(0, state.frozenUntil[player] - state.now));
+        if (config.turnTimeoutMillis > 0) {
+            long remaining = Math.max(0, state.deadline - state.now);
+            effects.setCountdown(remaining, remaining <= config.turnTimeoutWarningMillis);
+        }
+        else if (config.turnTimeoutMillis == 0)
+            effects.setElapsed(state.now - state.deadline);
+        checkEnd(state, effects);
+    }
+
+    private void key(GameState state, int player, int slot, UserInterface effects) {
+        if (state.claimed[player] || state.now < state.frozenUntil[player] || state.slotToCard[slot] < 0) return;
+
+        if (state.tokens[player][slot]) {
+            state.tokens[player][slot] = false;
+            --state.tokenCount[player];
+            effects.removeToken(player, slot);
+            return;
+        }
+        // a penalized player keeps its tokens, and must change one of them before it can claim again
+        if (state.tokenCount[player] == config.featureSize) return;
+
+        state.tokens[player][slot] = true;
+        ++state.tokenCount[player];
+        effects.placeToken(player, slot);
+        if (state.tokenCount[player] == config.featureSize)
+            state.claimed[player] = true;
+    }
+
+    /**
+     * Checks a player's claim (its tokens) and rewards or penalizes the player. A claim that lost some of its tokens
+     * since it was made (their cards were taken with another player's set or reshuffled) is dropped.
+     */
+    private void judge(GameState state, int player, UserInterface effects) {
+        if (!state.claimed[player]) return;
+        state.claimed[player] = false;
+        if (state.tokenCount[player] < config.featureSize) return;
+
+        int n = 0;
+        for (int slot = 0; slot < state.slotToCard.length; ++slot)
+            if (state.tokens[player][slot])
+                claim[n++] = state.slotToCard[slot];
+
+        if (util.testSet(claim)) {
+            for (int slot = 0; slot < state.slotToCard.length; ++slot)
+                if (state.tokens[player][slot]) {
+                    if (state.inPlay != null) state.inPlay.remove(state.slotToCard[slot]);
+                    removeCard(state, slot, effects);
+                }
+            effects.setScore(player, ++state.scores[player]);
+            freeze(state, player, config.pointFreezeMillis, effects);
+            deal(state, effects, config.guaranteedSets);
+            resetDeadline(state);
+        }
+        else {
+            ++state.penalties[player];
+            freeze(state, player, config.penaltyFreezeMillis, effects);
+        }
+    }
+
+    private void freeze(GameState state, int player, long millis, UserInterface effects) {
+        millis = Math.max(0, millis);
+        state.frozenUntil[player] = state.now + millis;
+        effects.setFreeze(player, millis);
+    }
+
+    /**
+     * Removes the card in a slot and every token on it.
+     */
+    private void removeCard(GameState state, int slot, UserInterface effects) {
+        for (int player = 0; player < state.players(); ++player)
+            if (state.tokens[player][slot]) {
+                state.tokens[player][slot] = false;
+                --state.tokenCount[player];
+            }
+        effects.removeTokens(slot);
+        state.slotToCard[slot] = -1;
+        state.setsDirty = true;
+        effects.removeCard(slot);
+    }
+
+    /**
+     * Fills the empty slots (in a random order) from the top of the deck.
+     *
+     * @param guarantee - true iff the cards dealt must leave a set on the table (if the table and deck can make one).
+     */
+    private void deal(GameState state, UserInterface effects, boolean guarantee) {
+        int empty = state.slotToCard.length - cardsOnTable(state);
+        if (empty == 0 || state.deckSize == 0) return;
+        if (guarantee) moveSetToDeckTop(state, empty);
+
+        shuffleSlotOrder(state);
+        for (int slot : slotOrder)
+            if (state.slotToCard[slot] < 0 && state.deckSize > 0) {
+                int card = state.deck[--state.deckSize];
+                state.slotToCard[slot] = card;
+                state.setsDirty = true;
+                effects.placeCard(card, slot);
+            }
+    }
+
+    /**
+     * Returns a card to the bottom of the deck.
+     */
+    private static void returnCard(GameState state, int card) {
+        System.arraycopy(state.deck, 0, state.deck, 1, state.deckSize);
+        state.deck[0] = card;
+        ++state.deckSize;
+    }
+
+    /**
+     * Reshuffles the table at the end of a round. In minimal reshuffle mode only as many cards as needed are swapped:
+     * if the table has no set, the fewest cards that let the deck complete a set; otherwise config.reshuffleRefreshCards
+     * cards, to refresh the table. Only the tokens on the swapped slots are removed.
+     */
+    private void reshuffle(GameState state, UserInterface effects) {
+        int swaps = -1;
+        boolean keepCompletion = false;
+        if (config.minimalReshuffle) {
+            updateSets(state);
+            swaps = config.reshuffleRefreshCards;
+            if (!state.tableHasSet) {
+                swaps = findSetCompletion(state, state.slotToCard.length);
+                keepCompletion = true;
+            }
+        }
+
+        if (swaps >= 0) {
+            state.reshuffled = returnCards(state, swaps, keepCompletion, effects);
+            deal(state, effects, true);
+        }
+        else {
+            state.reshuffled = returnCards(state, state.slotToCard.length, false, effects);
+            deal(state, effects, config.guaranteedSets);
+        }
+        resetDeadline(state);
+    }
+
+    /**
+     * Returns cards from random slots to the bottom of the deck, preferring slots without tokens.
+     *
+     * @param count          - the number of cards to return.
+     * @param keepCompletion - true iff the table cards of the set found by findSetCompletion should stay on the table.
+     * @return               - the number of cards returned.
+     */
+    private int returnCards(GameState state, int count, boolean keepCompletion, UserInterface effects) {
+        int returned = 0;
+        shuffleSlotOrder(state);
+        for (int pass = 0; pass < 2; ++pass)
+            for (int slot : slotOrder) {
+                int card = state.slotToCard[slot];
+                if (returned == count) return returned;
+                if (card < 0 || keepCompletion && inCompletion(card)) continue;
+                if (pass == 0 && hasTokens(state, slot)) continue;
+
+                removeCard(state, slot, effects);
+                returnCard(state, card);
+                ++returned;
+            }
+        return returned;
+    }
+
+    private boolean inCompletion(int card) {
+        for (int c : completion)
+            if (c == card) return true;
+        return false;
+    }
+
+    private static boolean hasTokens(GameState state, int slot) {
+        for (boolean[] playerTokens : state.tokens)
+            if (playerTokens[slot]) return true;
+        return false;
+    }
+
+    private static int cardsOnTable(GameState state) {
+        int count = 0;
+        for (int card : state.slotToCard)
+            if (card >= 0) ++count;
+        return count;
+    }
+
+    /**
+     * Shuffles the order in which the slots are dealt, with the random generator of the state.
+     */
+    private void shuffleSlotOrder(GameState state) {
+        for (int i = 0; i < slotOrder.length; ++i)
+            slotOrder[i] = i;
+        for (int i = slotOrder.length - 1; i > 0; --i) {
+            state.random = state.random * 6364136223846793005L + 1442695040888963407L;
+            int j = (int) ((state.random >>> 33) % (i + 1));
+            int slot = slotOrder[i];
+            slotOrder[i] = slotOrder[j];
+            slotOrder[j] = slot;
+        }
+    }
+
+    /**
+     * Moves cards that complete a set with the cards on the table (or form a set among themselves) to the top of the
+     * deck, using as few cards as possible. Does nothing if the table already contains a set.
+     *
+     * @param emptySlots - the number of empty slots on the table.
+     */
+    private void moveSetToDeckTop(GameState state, int emptySlots) {
+        updateSets(state);
+        if (state.tableHasSet || findSetCompletion(state, emptySlots) < 0) return;
+
+        for (int card : completion)
+            for (int i = 0; i < state.deckSize; ++i)
+                if (state.deck[i] == card) {
+                    System.arraycopy(state.deck, i + 1, state.deck, i, state.deckSize - 1 - i);
+                    state.deck[state.deckSize - 1] = card;
+                    break;
+                }
+    }
+
+    /**
+     * Finds a set made of cards on the table and as few cards from the deck as possible, and stores it in completion.
+     * Every combination of config.featureSize - 1 cards out of the table and the deck is completed and the completing
+     * card is looked up in the deck, so this costs one lookup per combination instead of testing every full set.
+     *
+     * @param maxDeckCards - the maximum number of cards from the deck the set may contain.
+     * @return             - the number of deck cards in the set found, or -1 if there is no such set.
+     */
+    private int findSetCompletion(GameState state, int maxDeckCards) {
+        // the candidates hold the table cards followed by the deck cards (top first), present marks the deck cards
+        int onTable = 0;
+        for (int card : state.slotToCard)
+            if (card >= 0)
+                candidates[onTable++] = card;
+        int n = onTable;
+        for (int i = state.deckSize - 1; i >= 0; --i) {
+            candidates[n] = state.deck[i];
+            present[candidates[n++]] = true;
+        }
+
+        int r = combination.length - 1;
+        int bestNeeded = Integer.MAX_VALUE;
+        if (n > r && r >= 2) {
+            for (int i = 0; i < r; ++i)
+                combination[i] = i;
+            while (bestNeeded > 1 && combination[r - 1] < n) {
+                int needed = 1;
+                for (int i = 0; i < r; ++i) {
+                    partial[i] = candidates[combination[i]];
+                    if (combination[i] >= onTable) ++needed;
+                }
+                int card = setIndex.complete(partial, r);
+                if (card >= 0 && present[card] && needed <= maxDeckCards && needed < bestNeeded) {
+                    bestNeeded = needed;
+                    System.arraycopy(partial, 0, completion, 0, r);
+                    completion[r] = card;
+                }
+
+                // generate next combination in lexicographic order
+                int t = r - 1;
+                while (t != 0 && combination[t] == n - r + t) --t;
+                combination[t]++;
+                for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            }
+        }
+
+        for (int i = onTable; i < n; ++i)
+            present[candidates[i]] = false;
+        return bestNeeded == Integer.MAX_VALUE ? -1 : bestNeeded;
+    }
+
+    private void resetDeadline(GameState state) {
+        state.deadline = state.now + Math.max(config.turnTimeoutMillis, 0);
+    }
+
+    /**
+     * Ends the game (and announces the winners) if there is no set left.
+     */
+    private void checkEnd(GameState state, UserInterface effects) {
+        updateSets(state);
+        if (state.anyHasSet) return;
+
+        state.finished = true;
+        effects.announceWinner(winners(state.scores));
+    }
+
+    /**
+     * Recomputes whether the table and the cards in play contain a set (only if cards moved since the last time).
+     */
+    private void updateSets(GameState state) {
+        if (!state.setsDirty) return;
+        cards.clear();
+        for (int card : state.slotToCard)
+            if (card >= 0)
+                cards.add(card);
+        state.tableHasSet = util.hasSet(cards);
+        if (state.tableHasSet)
+            state.anyHasSet = true;
+        else if (state.inPlay != null)
+            state.anyHasSet = state.inPlay.count() > 0;
+        else {
+            for (int i = 0; i < state.deckSize; ++i)
+                cards.add(state.deck[i]);
+            state.anyHasSet = util.hasSet(cards);
+        }
+        state.setsDirty = false;
+    }
+
+    /**
+     * @param scores - the score of every player.
+     * @return       - the ids of the players with the highest score.
+     */
+    public static int[] winners(int[] scores) {
+        int max = Integer.MIN_VALUE, count = 0;
+        for (int score : scores)
+            if (score > max) {
+                max = score;
+                count = 1;
+            }
+            else if (score == max)
+                ++count;
+
+        int[] winners = new int[count];
+        for (int player = 0, i = 0; player < scores.length; ++player)
+            if (scores[player] == max)
+                winners[i++] = player;
+        return winners;
+    }
+}
@@ -0,0 +1,265 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.SetCatalog;
+
+import java.util.Arrays;
+
+/**
+ * The complete state of a game, as changed by the GameEngine. It holds only data: no threads, timers or UI.
+ * A state is reused from step to step, and can be copied (copyFrom) to keep a snapshot.
+ */
+public class GameState {
+
+    /**
+     * The cards in the deck: deck[0] is the bottom and deck[deckSize - 1] is the top (the next card dealt).
+     */
+    final int[] deck;
+    int deckSize;
+
+    /**
+     * For large decks: the number of sets among the cards in play (on the table or in the deck), kept up to date as
+     * sets are taken using the set catalog (null for small decks, which are searched directly).
+     */
+    final SetCatalog.Counter inPlay;
+
+    /**
+     * The card in every slot (-1 if none).
+     */
+    final int[] slotToCard;
+
+    /**
+     * The tokens of every player (tokens[player][slot]) and the number of tokens every player has.
+     */
+    final boolean[][] tokens;
+    final int[] tokenCount;
+
+    /**
+     * Whether every player claimed a set with its tokens and waits for its verdict (see GameEngine.Event.Kind.CLAIM).
+     */
+    final boolean[] claimed;
+
+    /**
+     * The score and the number of penalties of every player, and the time until which every player is frozen.
+     */
+    final int[] scores;
+    final int[] penalties;
+    final long[] frozenUntil;
+
+    /**
+     * The time at which the table is reshuffled, and the time of the last event.
+     */
+    long deadline;
+    long now;
+
+    /**
+     * The state of the random generator that picks the order in which empty slots are dealt.
+     */
+    long random;
+
+    /**
+     * The number of cards the last reshuffle returned to the deck.
+     */
+    int reshuffled;
+
+    /**
+     * True iff the game is over.
+     */
+    boolean finished;
+
+    /**
+     * Whether the table and the table together with the deck contain a set, and whether cards moved since this was
+     * last computed.
+     */
+    boolean tableHasSet;
+    boolean anyHasSet;
+    boolean setsDirty = true;
+
+    /**
+     * Creates the state of a new game (before it starts).
+     *
+     * @param config  - the game configuration.
+     * @param players - the number of players.
+     * @param deck    - the cards in the deck, the first card is dealt first.
+     * @param seed    - the seed of the order in which empty slots are dealt.
+     */
+    public GameState(Config config, int players, int[] deck, long seed) {
+        this.deck = new int[config.deckSize];
+        this.deckSize = deck.length;
+        for (int i = 0; i < deck.length; ++i)
+            this.deck[deck.length - 1 - i] = deck[i];
+        if (config.deckSize >= config.setCatalogMinDeckSize) {
+            inPlay = SetCatalog.of(config).counter();
+            for (int card : deck)
+                inPlay.add(card);
+        }
+        else
+            inPlay = null;
+        slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        tokens = new boolean[players][config.tableSize];
+        tokenCount = new int[players];
+        claimed = new boolean[players];
+        scores = new int[players];
+        penalties = new int[players];
+        frozenUntil = new long[players];
+        random = seed;
+    }
+
+    /**
+     * Copies another state of the same game into this one.
+     *
+     * @param other - the state to copy.
+     */
+    public void copyFrom(GameState other) {
+        System.arraycopy(other.deck, 0, deck, 0, deck.length);
+        deckSize = other.deckSize;
+        if (inPlay != null) inPlay.copyFrom(other.inPlay);
+        System.arraycopy(other.slotToCard, 0, slotToCard, 0, slotToCard.length);
+        for (int player = 0; player < tokens.length; ++player)
+            System.arraycopy(other.tokens[player], 0, tokens[player], 0, tokens[player].length);
+        System.arraycopy(other.tokenCount, 0, tokenCount, 0, tokenCount.length);
+        System.arraycopy(other.claimed, 0, claimed, 0, claimed.length);
+        System.arraycopy(other.scores, 0, scores, 0, scores.length);
+        System.arraycopy(other.penalties, 0, penalties, 0, penalties.length);
+        System.arraycopy(other.frozenUntil, 0, frozenUntil, 0, frozenUntil.length);
+        deadline = other.deadline;
+        now = other.now;
+        random = other.random;
+        reshuffled = other.reshuffled;
+        finished = other.finished;
+        tableHasSet = other.tableHasSet;
+        anyHasSet = other.anyHasSet;
+        setsDirty = other.setsDirty;
+    }
+
+    /**
+     * Puts the table and the players of a saved game into the state of a new game made from the saved deck.
+     *
+     * @param config - the game configuration.
+     * @param saved  - the saved game (see Checkpoint.read).
+     * @param now    - the current time.
+     */
+    void restore(Config config, Checkpoint.Saved saved, long now) {
+        for (int slot = 0; slot < slotToCard.length; ++slot) {
+            slotToCard[slot] = saved.slots[slot];
+            if (inPlay != null && slotToCard[slot] >= 0) inPlay.add(slotToCard[slot]);
+        }
+        for (int player = 0; player < players(); ++player) {
+            for (int slot = 0; slot < slotToCard.length; ++slot)
+                if (saved.tokens[player][slot] && slotToCard[slot] >= 0) {
+                    tokens[player][slot] = true;
+                    ++tokenCount[player];
+                }
+            // a player left with a full set of tokens was either waiting for a verdict (claims again) or penalized
+            claimed[player] = tokenCount[player] == config.featureSize
+                    && saved.states[player] == Player.State.AWAITING_VERDICT;
+            scores[player] = saved.scores[player];
+            penalties[player] = saved.penalties[player];
+            frozenUntil[player] = now + saved.frozen[player];
+        }
+        this.now = now;
+        deadline = now - saved.roundElapsed + Math.max(config.turnTimeoutMillis, 0);
+        setsDirty = true;
+    }
+
+    /**
+     * @return - the number of players.
+     */
+    public int players() {
+        return scores.length;
+    }
+
+    /**
+     * @param slot - the slot.
+     * @return     - the card in the slot, or -1 if none.
+     */
+    public int card(int slot) {
+        return slotToCard[slot];
+    }
+
+    /**
+     * @return - the number of cards left in the deck.
+     */
+    public int deckSize() {
+        return deckSize;
+    }
+
+    /**
+     * @param index - a position in the deck, from the top (0 is the next card dealt).
+     * @return      - the card in that position.
+     */
+    public int deckCard(int index) {
+        return deck[deckSize - 1 - index];
+    }
+
+    /**
+     * @param player - the player id.
+     * @param slot   - the slot.
+     * @return       - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return tokens[player][slot];
+    }
+
+    /**
+     * @param player - the player id.
+     * @return       - the number of tokens the player has on the table.
+     */
+    public int tokens(int player) {
+        return tokenCount[player];
+    }
+
+    /**
+     * @param player - the player id.
+     * @return       - true iff the player claimed a set and waits for its verdict.
+     */
+    public boolean claimed(int player) {
+        return claimed[player];
+    }
+
+    /**
+     * @param player - the player id.
+     * @return       - the player's score.
+     */
+    public int score(int player) {
+        return scores[player];
+    }
+
+    /**
+     * @param player - the player id.
+     * @return       - the number of times the player was penalized.
+     */
+    public int penalties(int player) {
+        return penalties[player];
+    }
+
+    /**
+     * @param player - the player id.
+     * @return       - the time until which the player is frozen.
+     */
+    public long frozenUntil(int player) {
+        return frozenUntil[player];
+    }
+
+    /**
+     * @return - the time at which the table is reshuffled (for games without a countdown, the time the round started).
+     */
+    public long deadline() {
+        return deadline;
+    }
+
+    /**
+     * @return - the number of cards the last reshuffle returned to the deck.
+     */
+    public int reshuffled() {
+        return reshuffled;
+    }
+
+    /**
+     * @return - true iff the game is over.
+     */
+    public boolean finished() {
+        return finished;
+    }
+}
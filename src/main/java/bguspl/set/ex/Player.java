@@ -1,21 +1,78 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.Log;
 
-import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This class manages the players' threads and data
+ * This class manages the players' threads and data.
+ * The player thread feeds the player's key presses to the game (see Dealer.press) and follows the dealer's verdicts;
+ * the player's tokens, score and penalties are part of the game state.
  *
  * @inv id >= 0
  * @inv score >= 0
  */
 public class Player implements Runnable {
-    private BlockingQueue<Integer> playerPresses;
-    private Vector<Integer> playerTokens;
-    private boolean changeAfterPenalty;
+
+    /**
+     * The states of a player.
+     * IDLE             - the player has no tokens on the table.
+     * SELECTING        - the player has some tokens on the table (but has not claimed a set with them).
+     * AWAITING_VERDICT - the player claimed a set and waits for the dealer to check it.
+     * FROZEN           - the player scored a point or was penalized and ignores key presses until the freeze ends.
+     * TERMINATED       - the player thread has finished.
+     */
+    public enum State { IDLE, SELECTING, AWAITING_VERDICT, FROZEN, TERMINATED }
+
+    /**
+     * A message in the player's mailbox. All messages are preallocated, so sending one does not allocate a message.
+     */
+    private static final class Message {
+        private enum Kind { KEY, TOKENS, VERDICT, TERMINATE }
+
+        private final Kind kind;
+        private final int slot;
+
+        private Message(Kind kind, int slot) {
+            this.kind = kind;
+            this.slot = slot;
+        }
+    }
+
+    private static final Message TOKENS = new Message(Message.Kind.TOKENS, -1);
+    private static final Message VERDICT = new Message(Message.Kind.VERDICT, -1);
+    private static final Message TERMINATE = new Message(Message.Kind.TERMINATE, -1);
+
+    /**
+     * The messages sent to the player (key presses, the dealer's notices that tokens were taken and verdicts, and
+     * termination), processed in order by the player thread, which is the only thread that changes the player's state.
+     */
+    private final BlockingQueue<Message> mailbox;
+
+    /**
+     * The key press message of every slot.
+     */
+    private final Message[] keyMessages;
+
+    /**
+     * The current state of the player.
+     */
+    private volatile State state = State.IDLE;
+
+    /**
+     * The time (in milliseconds) until which the player is frozen.
+     */
+    private volatile long frozenUntil;
+
+    /**
+     * The time (System.nanoTime) the player started on its current claim: when it placed its first token, or when it
+     * was last released from a verdict or a freeze (so the time it was frozen does not count as reaction time).
+     */
+    private volatile long reactionStartNanos;
 
 
     /**
@@ -39,9 +96,10 @@ public class Player implements Runnable {
     private Thread playerThread;
 
     /**
-     * The thread of the AI (computer) player (an additional thread used to generate key presses).
+     * The scheduler that drives the AI (computer) player and the player's task in it.
      */
-    private Thread aiThread;
+    private final BotScheduler scheduler;
+    private BotScheduler.Task aiTask;
 
     /**
      * True iff the player is human (not a computer player).
@@ -54,9 +112,9 @@ public class Player implements Runnable {
     private volatile boolean terminate;
 
     /**
-     * The current score of the player.
+     * The table as the AI (computer) player last saw it (null for a human player).
      */
-    private int score;
+    private Table.Snapshot seen;
 
     final Dealer dealer;
     /**
@@ -69,80 +127,157 @@ public class Player implements Runnable {
      * @param human  - true iff the player is a human player (i.e. input is provided manually, via the keyboard).
      */
     public Player(Env env, Dealer dealer, Table table, int id, boolean human) {
+        this(env, dealer, table, id, human, null);
+    }
+
+    /**
+     * The class constructor.
+     *
+     * @param env       - the environment object.
+     * @param dealer    - the dealer object.
+     * @param table     - the table object.
+     * @param id        - the id of the player.
+     * @param human     - true iff the player is a human player (i.e. input is provided manually, via the keyboard).
+     * @param scheduler - the scheduler that drives the player if it is a computer player (null for the common one).
+     */
+    public Player(Env env, Dealer dealer, Table table, int id, boolean human, BotScheduler scheduler) {
         this.env = env;
+        this.scheduler = scheduler;
         this.table = table;
         this.id = id;
         this.human = human;
-        playerTokens = new Vector<>();
-        playerPresses = new LinkedBlockingQueue<>();
-        changeAfterPenalty = true;
+        mailbox = new LinkedBlockingQueue<>();
+        keyMessages = new Message[env.config.tableSize];
+        for (int slot = 0; slot < keyMessages.length; ++slot)
+            keyMessages[slot] = new Message(Message.Kind.KEY, slot);
         this.dealer = dealer;
 
     }
 
-    public Vector<Integer> tokenToSlots(){
-        return playerTokens;
+    /**
+     * @return - the current state of the player.
+     */
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return - the time (in milliseconds) until which the player is frozen.
+     */
+    public long frozenUntil() {
+        return frozenUntil;
     }
+
     /**
      * The main player thread of each player starts here (main loop for the player thread).
+     * The thread processes the messages in the player's mailbox one by one until it receives a termination message.
      */
     @Override
     public void run() {
         playerThread = Thread.currentThread();
-        System.out.printf("Info: Thread %s starting.%n", Thread.currentThread().getName());
+        Log.info("Thread %s starting.", Thread.currentThread().getName());
         if (!human) createArtificialIntelligence();
 
-        while (!terminate) {
+        while (state != State.TERMINATED) {
+            Message message;
             try {
-                step();
+                message = receive();
+            } catch (InterruptedException e) {
+                continue;
             }
-            catch (Exception e){}
-            if(playerTokens.size() == 3 && changeAfterPenalty ) {
-                dealer.addToPlayersQueue(this);
-                synchronized (dealer) {
-                    dealer.notifyAll();
-                }
-                try {
-                    synchronized (this) {
-                        this.wait();
-                    }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                playerPresses.clear();
+            if (message == null) continue;
+
+            switch (message.kind) {
+                case KEY:
+                    step(message.slot);
+                    break;
+                case TOKENS:
+                    if (state == State.IDLE || state == State.SELECTING)
+                        state = dealer.tokens(id) == 0 ? State.IDLE : State.SELECTING;
+                    break;
+                case VERDICT:
+                    if (state == State.AWAITING_VERDICT)
+                        unfreeze();
+                    break;
+                case TERMINATE:
+                    state = State.TERMINATED;
+                    break;
             }
+        }
+        if (!human) aiTask.cancel();
+        Log.info("Thread %s terminated.", Thread.currentThread().getName());
+    }
+
+    /**
+     * Waits for the next message. While the player is frozen, waits only until the freeze ends and then unfreezes.
+     *
+     * @return - the next message, or null if the freeze ended first.
+     */
+    private Message receive() throws InterruptedException {
+        if (state != State.FROZEN)
+            return mailbox.take();
+
+        long remaining = frozenUntil - System.currentTimeMillis();
+        Message message = remaining > 0 ? mailbox.poll(remaining, TimeUnit.MILLISECONDS) : null;
+        if (message == null || frozenUntil <= System.currentTimeMillis())
+            unfreeze();
+        return message;
+    }
 
+    /**
+     * Moves the player out of the frozen/awaiting verdict state (into the frozen state if a freeze is still on).
+     */
+    private void unfreeze() {
+        if (frozenUntil > System.currentTimeMillis())
+            state = State.FROZEN;
+        else {
+            reactionStartNanos = System.nanoTime();
+            state = dealer.tokens(id) == 0 ? State.IDLE : State.SELECTING;
         }
-        if (!human) try { aiThread.join(); } catch (InterruptedException ignored) {}
-        System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
     }
 
     /**
-     * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
-     * key presses. If the queue of key presses is full, the thread waits until it is not full.
+     * Schedules the AI (computer) player in the bot scheduler. Every run moves the player's tokens to the slots the bot
+     * chose (see Bot) and schedules the next run after the bot's reaction time.
      */
     private void createArtificialIntelligence() {
-        // note: this is a very very smart AI (!)
-        aiThread = new Thread(() -> {
-            System.out.printf("Info: Thread %s starting.%n", Thread.currentThread().getName());
-            while (!terminate) {
-                Random random = new Random();
-                int slotChosen =random.nextInt(12);
-                keyPressed(slotChosen);
-                try {
-                    synchronized (this) { wait(); }
-                } catch (InterruptedException ignored) {}
+        Bot bot = new Bot(env, table, System.nanoTime() + id);
+        seen = new Table.Snapshot(table);
+        BotScheduler scheduler = this.scheduler != null ? this.scheduler : BotScheduler.common();
+        aiTask = scheduler.schedule(() -> {
+            if (terminate) return -1;
+            if (state == State.IDLE || state == State.SELECTING) {
+                int[] slots = bot.chooseSlots();
+                if (slots != null) pressSlots(slots);
             }
-            System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
-        }, "computer-" + id);
-        aiThread.start();
+            return bot.reactionDelay();
+        }, bot.reactionDelay());
+    }
+
+    /**
+     * Presses the keys needed to move the player's tokens to the given slots (removing tokens that are elsewhere).
+     *
+     * @param slots - the slots the player's tokens should be on.
+     */
+    private void pressSlots(int[] slots) {
+        table.snapshot(seen);
+        for (int slot = 0; slot < env.config.tableSize; ++slot) {
+            if (!seen.hasToken(id, slot)) continue;
+            boolean chosen = false;
+            for (int s : slots)
+                if (s == slot) chosen = true;
+            if (!chosen) keyPressed(slot);
+        }
+        for (int slot : slots)
+            if (!seen.hasToken(id, slot)) keyPressed(slot);
     }
 
     /**
      * Called when the game should be terminated due to an external event.
      */
     public void terminate() {
-        // TODO implement
+        terminate = true;
+        mailbox.add(TERMINATE);
     }
 
     /**
@@ -152,67 +287,87 @@ public class Player implements Runnable {
      */
     public void keyPressed(int slot) {
         if(!dealer.isPlacingCards()){
-            playerPresses.add(slot);
-        }
-    }
-    public void  step() throws InterruptedException {
-        int slot = playerPresses.take();
-        if (playerTokens.contains(slot)){
-            playerTokens.remove((Integer) slot);
-            table.removeToken(this.id,slot);
-            changeAfterPenalty=true;
-        }
-        else {
-            if (playerTokens.size() < 3) {
-                if (table.slotToCard[slot] != null) {
-                    table.placeToken(this.id, slot);
-                    playerTokens.add(slot);
-                }
-            }
+            mailbox.add(keyMessages[slot]);
         }
     }
 
     /**
-     * Award a point to a player and perform other related actions.
+     * Handles a key press: feeds it to the game, which toggles the player's token on the slot and claims a set once the
+     * player has config.featureSize tokens on the table. Key presses are ignored while the player is frozen or awaiting
+     * a verdict.
      *
-     * @post - the player's score is increased by 1.
-     * @post - the player's score is updated in the ui.
+     * @param slot - the slot corresponding to the key pressed.
      */
-    public void point() {
-        // TODO implement
+    private void step(int slot) {
+        if (state == State.AWAITING_VERDICT || state == State.FROZEN)
+            return;
 
-        int ignored = table.countCards(); // this part is just for demonstration in the unit tests
-        env.ui.setScore(id, ++score);
+        long pressed = System.nanoTime();
+        int tokens = dealer.press(id, slot);
+        if (state == State.IDLE && tokens != 0) reactionStartNanos = pressed;
+
+        if (tokens < 0) {
+            state = State.AWAITING_VERDICT;
+            dealer.addToPlayersQueue(this);
+        }
+        else
+            state = tokens == 0 ? State.IDLE : State.SELECTING;
     }
 
     /**
-     * Penalize a player and perform other related actions.
+     * Sends the dealer's verdict on the player's claim to the player thread.
+     *
+     * @param frozenUntil - the time (in milliseconds) until which the game froze the player (for a point or a penalty).
      */
-    //TODO: how to prevent player from doing any action while being freezed
-    public void penalty() {
-        changeAfterPenalty=false;
-
+    void verdict(long frozenUntil) {
+        this.frozenUntil = frozenUntil;
+        long freezeMillis = frozenUntil - System.currentTimeMillis();
+        if (freezeMillis > 0) {
+            GameEvents.Freeze event = new GameEvents.Freeze();
+            if (event.shouldCommit()) {
+                event.player = id;
+                event.millis = freezeMillis;
+                event.commit();
+            }
         }
+        mailbox.add(VERDICT);
+    }
 
-
-        //TODO show timer on screen near player's name
-
-
-    public int getScore() {
-        return score;
+    /**
+     * Tells the player that the dealer took cards off the table, maybe with some of its tokens.
+     */
+    void tokensTaken() {
+        mailbox.add(TOKENS);
     }
 
-    public void clearTokens(List<Integer> slots) {
-        for(int slot:slots) {
-            if (tokenToSlots().contains(slot)) {
-//                  table.removeToken(this.id, tokenToSlots().get(i));
-                playerTokens.remove((Integer) slot);
-                table.removeToken(id, slot);
-            }
+    /**
+     * Restores the player from a saved game (before the player thread starts, after the game was restored).
+     *
+     * @param frozenUntil - the time (in milliseconds) until which the player is frozen.
+     * @param claimed     - true iff the player was waiting for the verdict on a claim (it claims again).
+     */
+    void restore(long frozenUntil, boolean claimed) {
+        this.frozenUntil = frozenUntil;
+        reactionStartNanos = System.nanoTime();
+        if (claimed) {
+            state = State.AWAITING_VERDICT;
+            dealer.addToPlayersQueue(this);
         }
-
+        else unfreeze();
     }
 
+    /**
+     * @return - the time (System.nanoTime) the player started on its current claim (see reactionStartNanos).
+     */
+    public long reactionStartNanos() {
+        return reactionStartNanos;
+    }
 
+    public int getScore() {
+        return dealer.score(id);
+    }
 
+    public int getPenalties() {
+        return dealer.penalties(id);
+    }
 }
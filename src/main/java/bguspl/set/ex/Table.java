@@ -1,14 +1,26 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class contains the data that is visible to the player.
+ * <p>
+ * The cards and the tokens are protected by a seqlock: writers (the dealer and the players) take the
+ * write lock for the few stores of every change, while readers (bots, hints, the UI) copy a consistent snapshot using
+ * optimistic reads and retry if a write happened meanwhile. Readers never block writers and writers never block
+ * readers.
  *
  * @inv slotToCard[x] == y iff cardToSlot[y] == x
  */
@@ -29,7 +41,96 @@ public class Table {
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
 
+    /**
+     * The seqlock that protects the cards (slotToCard and cardToSlot) and the tokens (see the class documentation).
+     */
+    private final StampedLock seqlock = new StampedLock();
 
+    /**
+     * The tokens of every player (tokens[player][slot]), under the seqlock.
+     */
+    private final boolean[][] tokens;
+
+    /**
+     * The number of changes made to the cards and tokens, under the seqlock.
+     */
+    private long changes;
+
+    /**
+     * A consistent copy of the cards and tokens on the table (see snapshot). Readers keep and reuse their own copy.
+     */
+    public static final class Snapshot {
+
+        private long version;
+        private final int[] slotToCard;
+        private final boolean[][] tokens;
+
+        /**
+         * @param table - the table this snapshot is of.
+         */
+        public Snapshot(Table table) {
+            slotToCard = new int[table.slotToCard.length];
+            tokens = new boolean[table.tokens.length][table.slotToCard.length];
+        }
+
+        /**
+         * @return - the number of changes made to the table before this snapshot was taken.
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * @param slot - the slot.
+         * @return     - the card in the slot, or -1 if none.
+         */
+        public int card(int slot) {
+            return slotToCard[slot];
+        }
+
+        /**
+         * @param player - the player id.
+         * @param slot   - the slot.
+         * @return       - true iff the player had a token on the slot.
+         */
+        public boolean hasToken(int player, int slot) {
+            return tokens[player][slot];
+        }
+    }
+
+    /**
+     * The maximum number of table configurations whose hints are kept.
+     */
+    private static final int HINT_CACHE_SIZE = 64;
+
+    /**
+     * The sets of recently seen table configurations (least recently used first), with their features pre-formatted.
+     * The key is the bitset of the card ids on the table.
+     */
+    private final Map<BitSet, List<Hint>> hintCache = new LinkedHashMap<BitSet, List<Hint>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BitSet, List<Hint>> eldest) {
+            return size() > HINT_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Computes and prints the hints, off the dealer thread.
+     */
+    private static ExecutorService hintExecutor;
+
+    /**
+     * A set found on the table.
+     */
+    private static final class Hint {
+        private final int[] set;
+        private final String features;
+
+        private Hint(int[] set, String features) {
+            this.set = set;
+            this.features = features;
+        }
+    }
 
     /**
      * Constructor for testing.
@@ -42,7 +143,29 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
+        tokens = new boolean[env.config.players][slotToCard.length];
+    }
 
+    /**
+     * Copies the cards and tokens on the table into a snapshot, without locking: the copy is retried if the table
+     * changed while it was made.
+     *
+     * @param snapshot - the snapshot to copy into (reused, so taking a snapshot does not allocate).
+     * @return         - the snapshot.
+     */
+    public Snapshot snapshot(Snapshot snapshot) {
+        while (true) {
+            long stamp = seqlock.tryOptimisticRead();
+            if (stamp == 0) continue; // a write is in progress
+            snapshot.version = changes;
+            for (int slot = 0; slot < slotToCard.length; ++slot) {
+                Integer card = slotToCard[slot];
+                snapshot.slotToCard[slot] = card == null ? -1 : card;
+            }
+            for (int player = 0; player < tokens.length; ++player)
+                System.arraycopy(tokens[player], 0, snapshot.tokens[player], 0, slotToCard.length);
+            if (seqlock.validate(stamp)) return snapshot;
+        }
     }
 
     /**
@@ -57,15 +180,74 @@ public class Table {
 
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
+     * The sets are computed in the background and cached per table configuration, so repeated requests for the same
+     * cards cost a lookup. Both the cache key and the slots printed come from a snapshot of the table, and hints for a
+     * table whose cards changed before they were printed are dropped.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+        Snapshot requested = snapshot(new Snapshot(this));
+        BitSet key = new BitSet();
+        for (int slot = 0; slot < requested.slotToCard.length; ++slot)
+            if (requested.card(slot) >= 0) key.set(requested.card(slot));
+        hintExecutor().execute(() -> {
+            List<Hint> hints;
+            synchronized (hintCache) {
+                hints = hintCache.get(key);
+            }
+            if (hints == null) {
+                hints = findHints(key);
+                synchronized (hintCache) {
+                    hintCache.put(key, hints);
+                }
+            }
+            Snapshot current = new Snapshot(this);
+            for (Hint hint : hints) {
+                if (!Arrays.equals(snapshot(current).slotToCard, requested.slotToCard)) return;
+                int[] slots = new int[hint.set.length];
+                for (int i = 0; i < slots.length; ++i)
+                    slots[i] = slotOf(requested, hint.set[i]);
+                Arrays.sort(slots);
+                Log.hint("Set found: slots: %s features: %s", Arrays.toString(slots), hint.features);
+            }
+        });
+    }
+
+    /**
+     * Finds all the sets among the given cards.
+     */
+    private List<Hint> findHints(BitSet key) {
+        List<Integer> deck = new ArrayList<>(key.cardinality());
+        for (int card = key.nextSetBit(0); card >= 0; card = key.nextSetBit(card + 1))
+            deck.add(card);
+        List<Hint> hints = new ArrayList<>();
+        env.util.forEachSet(deck, set -> {
+            int[] copy = set.clone();
+            hints.add(new Hint(copy, Arrays.deepToString(env.util.cardsToFeatures(copy))));
+            return true;
         });
+        return hints;
+    }
+
+    /**
+     * @return - the slot of the card in the snapshot, or -1 if it is not on the table.
+     */
+    private static int slotOf(Snapshot snapshot, int card) {
+        for (int slot = 0; slot < snapshot.slotToCard.length; ++slot)
+            if (snapshot.slotToCard[slot] == card) return slot;
+        return -1;
+    }
+
+    /**
+     * @return - the executor of the hint computations (a single daemon thread, created on first use).
+     */
+    private static synchronized ExecutorService hintExecutor() {
+        if (hintExecutor == null)
+            hintExecutor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "hints");
+                thread.setDaemon(true);
+                return thread;
+            });
+        return hintExecutor;
     }
 
     /**
@@ -92,10 +274,30 @@ public class Table {
         try {
             Thread.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
+        restoreCard(card, slot);
+    }
 
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
+    /**
+     * Places a card on the table in a grid slot at once, without the table delay (when resuming a saved game).
+     * @param card - the card id to place in the slot.
+     * @param slot - the slot in which the card should be placed.
+     */
+    void restoreCard(int card, int slot) {
+        long stamp = seqlock.writeLock();
+        try {
+            cardToSlot[card] = slot;
+            slotToCard[slot] = card;
+            ++changes;
+        } finally {
+            seqlock.unlockWrite(stamp);
+        }
 
+        GameEvents.CardPlaced event = new GameEvents.CardPlaced();
+        if (event.shouldCommit()) {
+            event.card = card;
+            event.slot = slot;
+            event.commit();
+        }
         env.ui.placeCard(card, slot);
     }
 
@@ -108,7 +310,24 @@ public class Table {
             Thread.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
 
-        slotToCard[slot] = null;
+        Integer card = slotToCard[slot];
+        long stamp = seqlock.writeLock();
+        try {
+            if (card != null) cardToSlot[card] = null;
+            slotToCard[slot] = null;
+            for (boolean[] playerTokens : tokens)
+                playerTokens[slot] = false;
+            ++changes;
+        } finally {
+            seqlock.unlockWrite(stamp);
+        }
+
+        GameEvents.CardRemoved event = new GameEvents.CardRemoved();
+        if (event.shouldCommit()) {
+            event.card = card != null ? card : -1;
+            event.slot = slot;
+            event.commit();
+        }
         env.ui.removeCard(slot);
     }
 
@@ -117,17 +336,17 @@ public class Table {
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
      */
-    //TODO check if we need synchronized here
     public void placeToken(int player, int slot) {
+        long stamp = seqlock.writeLock();
+        try {
+            tokens[player][slot] = true;
+            ++changes;
+        } finally {
+            seqlock.unlockWrite(stamp);
+        }
         env.ui.placeToken(player,slot);
-
     }
 
-
-
-    //return
-
-
     /**
      * Removes a token of a player from a grid slot.
      * @param player - the player the token belongs to.
@@ -135,12 +354,16 @@ public class Table {
      * @return       - true iff a token was successfully removed.
      */
     public boolean removeToken(int player, int slot) {
-        //if()
-        //TODO return true if succeeded
+        boolean removed;
+        long stamp = seqlock.writeLock();
+        try {
+            removed = tokens[player][slot];
+            tokens[player][slot] = false;
+            ++changes;
+        } finally {
+            seqlock.unlockWrite(stamp);
+        }
         env.ui.removeToken(player,slot);
-
-        return false;
+        return removed;
     }
-
-
 }
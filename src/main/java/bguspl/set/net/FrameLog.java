@@ -0,0 +1,92 @@
+package bguspl.set.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An append-only log of encoded frames, shared by all the connections of a table: every change is encoded once, and
+ * every connection sends it from the log through its own read-only view (no per-connection copy).
+ * <p>
+ * The log is a linked list of chunks. Frames never span chunks, and the bytes of a chunk below its published limit are
+ * never changed again, so readers need no locking. Chunks nobody reads anymore are garbage collected.
+ * The log has a single writer at a time (the caller serializes the appends).
+ */
+final class FrameLog {
+
+    /**
+     * The size of a chunk.
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * A part of the log.
+     */
+    static final class Chunk {
+
+        /**
+         * The frames (written by the log's writer, read through duplicates).
+         */
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+        /**
+         * The position of the chunk in the log (the number of bytes in the log before it).
+         */
+        final long start;
+
+        /**
+         * The number of published bytes in the chunk.
+         */
+        volatile int limit;
+
+        /**
+         * The next chunk (null while this is the last one).
+         */
+        volatile Chunk next;
+
+        Chunk(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * The chunk frames are appended to.
+     */
+    private volatile Chunk tail = new Chunk(0);
+
+    /**
+     * @return - the buffer the next frame should be encoded into (call publish after encoding).
+     */
+    ByteBuffer buffer() {
+        return tail.buffer;
+    }
+
+    /**
+     * Starts a new chunk, for a frame that did not fit in the current one.
+     */
+    void next() {
+        Chunk chunk = new Chunk(tail.start + tail.limit);
+        tail.next = chunk;
+        tail = chunk;
+    }
+
+    /**
+     * Publishes the frames encoded since the last call.
+     */
+    void publish() {
+        tail.limit = tail.buffer.position();
+    }
+
+    /**
+     * @return - the last chunk.
+     */
+    Chunk tail() {
+        return tail;
+    }
+
+    /**
+     * @return - the number of bytes published.
+     */
+    long position() {
+        Chunk chunk = tail;
+        return chunk.start + chunk.limit;
+    }
+}
@@ -0,0 +1,603 @@
+package bguspl.set.net;
+
+import bguspl.set.Log;
+import bguspl.set.UserInterface;
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking game server: remote clients join a table as one of its players (or as spectators), send key presses
+ * and receive the table's changes (see Protocol). A single thread serves all the connections of all the tables using a
+ * selector.
+ * <p>
+ * Game threads report changes through the UserInterface of their table (see addTable). Every change is encoded once
+ * into the table's shared FrameLog, and every connection of the table sends it from there, so broadcasting to many
+ * clients costs the game thread the same as broadcasting to one. A client that falls too far behind the log skips
+ * ahead: it gets a snapshot of the table instead of the changes it missed, so slow clients never stall the game or
+ * make the server buffer without bound.
+ */
+public class GameServer implements Runnable {
+
+    /**
+     * The size of the input buffer and the initial size of the control buffer (replies and snapshots) of every
+     * connection. A connection that joins a table gets a control buffer that fits the table's snapshot.
+     */
+    private static final int INPUT_BUFFER_SIZE = 1024;
+    private static final int CONTROL_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The number of bytes a connection may fall behind the log before it skips to a snapshot.
+     */
+    private static final long MAX_LAG = 4L * FrameLog.CHUNK_SIZE;
+
+    /**
+     * The maximum time (in milliseconds) between two checks of the connections' lag.
+     */
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The socket send buffer size of the connections (0 for the system's default).
+     */
+    private final int sendBufferSize;
+
+    /**
+     * The tables that can be joined, by id.
+     */
+    private final Map<Integer, TableFeed> tables = new ConcurrentHashMap<>();
+
+    /**
+     * True iff the selector was already woken up and did not select since (so game threads do not wake it repeatedly).
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    private volatile boolean terminate;
+    private Thread thread;
+
+    /**
+     * The state of a client connection (used by the server thread only).
+     */
+    private static final class Connection {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+
+        /**
+         * Frames meant for this connection only (in write mode), sent before the log.
+         */
+        private ByteBuffer control = ByteBuffer.allocateDirect(CONTROL_BUFFER_SIZE);
+
+        /**
+         * The table the client joined (null before it joins) and the player it plays as (null for spectators).
+         */
+        private TableFeed table;
+        private Player player;
+
+        /**
+         * The log chunk being sent and a read-only view of it (its position is the next byte to send).
+         */
+        private FrameLog.Chunk chunk;
+        private ByteBuffer view;
+
+        /**
+         * When the connection lags: the end of the frame being sent, after which it skips to a snapshot (-1 otherwise).
+         */
+        private int skipAt = -1;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private long cursor() {
+            return chunk.start + view.position();
+        }
+    }
+
+    /**
+     * The class constructor: binds the server socket.
+     *
+     * @param port - the TCP port to listen on (0 for any free port).
+     */
+    public GameServer(int port) throws IOException {
+        this(port, 0);
+    }
+
+    /**
+     * Constructor for testing: small socket buffers make a client that does not read fall behind the log quickly.
+     *
+     * @param port           - the TCP port to listen on (0 for any free port).
+     * @param sendBufferSize - the socket send buffer size of the connections (0 for the system's default).
+     */
+    GameServer(int port, int sendBufferSize) throws IOException {
+        this.sendBufferSize = sendBufferSize;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return - the TCP port the server listens on.
+     */
+    public int port() {
+        return ((InetSocketAddress) serverChannel.socket().getLocalSocketAddress()).getPort();
+    }
+
+    /**
+     * Makes a table available to remote players and spectators.
+     *
+     * @param id            - the table id clients use to join it.
+     * @param players       - the players of the table.
+     * @param remotePlayers - the number of players remote clients may play as (the first ones, i.e. the human players).
+     * @param tableSize     - the number of slots on the table.
+     * @return              - the user interface that sends the table's changes to its clients.
+     */
+    public UserInterface addTable(int id, Player[] players, int remotePlayers, int tableSize) {
+        TableFeed feed = new TableFeed(players, remotePlayers, tableSize);
+        tables.put(id, feed);
+        return feed;
+    }
+
+    /**
+     * Starts the server thread.
+     */
+    public void start() {
+        thread = new Thread(this, "game-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the server thread and closes all the connections.
+     */
+    public void terminate() {
+        terminate = true;
+        selector.wakeup();
+        if (thread != null)
+            try { thread.join(); } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * The main loop of the server thread.
+     */
+    @Override
+    public void run() {
+        Log.info("Thread %s starting (port %d).", Thread.currentThread().getName(), port());
+        try {
+            while (!terminate) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                wakeupPending.set(false);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) read(connection);
+                            if (key.isValid() && key.isWritable()) flush(connection);
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) close((Connection) key.attachment());
+                    }
+                }
+                for (TableFeed table : tables.values())
+                    broadcast(table);
+            }
+        } catch (IOException e) {
+            Log.warning("game server failed: %s", e);
+        } finally {
+            for (SelectionKey key : selector.keys())
+                if (key.attachment() != null) close((Connection) key.attachment());
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+        Log.info("Thread %s terminated.", Thread.currentThread().getName());
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (sendBufferSize > 0) channel.socket().setSendBufferSize(sendBufferSize);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    /**
+     * Reads what the client sent and handles every complete frame.
+     */
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            close(connection);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (Protocol.hasFrame(in)) {
+            byte type = in.get();
+            if (type == Protocol.JOIN) {
+                int table = in.getInt();
+                join(connection, table, in.getShort());
+            }
+            else if (type == Protocol.KEY) {
+                int slot = in.getShort();
+                if (connection.player == null) continue;
+                if (slot < 0 || slot >= connection.table.cards.length) {
+                    close(connection);
+                    return;
+                }
+                connection.player.keyPressed(slot);
+            }
+            else {
+                close(connection);
+                return;
+            }
+        }
+        if (Protocol.frameLength(in) < 0) {
+            close(connection);
+            return;
+        }
+        in.compact();
+    }
+
+    /**
+     * Subscribes a connection to a table (as one of its players, or as a spectator if player is -1). A player can only
+     * be played by one connection at a time, and only if it is one of the table's remote players.
+     */
+    private void join(Connection connection, int tableId, int player) throws IOException {
+        TableFeed table = tables.get(tableId);
+        if (table == null || connection.table != null || player < -1 || player >= table.owners.length
+                || player >= 0 && table.owners[player] != null) {
+            // a client that keeps asking without reading its replies is dropped
+            if (!Protocol.rejected(connection.control)) throw new IOException("control buffer full");
+            flush(connection);
+            return;
+        }
+
+        reserveControl(connection, Protocol.MAX_FIXED_FRAME + table.snapshotSize);
+        connection.table = table;
+        if (player >= 0) table.owners[player] = connection;
+        connection.player = player < 0 ? null : table.players[player];
+        Protocol.joined(connection.control, player);
+        table.subscribe(connection);
+        flush(connection);
+    }
+
+    /**
+     * Grows a connection's control buffer (keeping the frames in it) so it has room for the given number of bytes.
+     */
+    private static void reserveControl(Connection connection, int bytes) {
+        ByteBuffer control = connection.control;
+        if (control.remaining() >= bytes) return;
+        ByteBuffer larger = ByteBuffer.allocateDirect(control.position() + bytes);
+        control.flip();
+        larger.put(control);
+        connection.control = larger;
+    }
+
+    /**
+     * Sends the new frames of a table to its connections (the ones that are not waiting for their socket), and makes
+     * the connections that fell too far behind skip to a snapshot.
+     */
+    private void broadcast(TableFeed table) {
+        long head = table.log.position();
+        for (Connection connection : table.subscribers) {
+            if (head - connection.cursor() > MAX_LAG && connection.skipAt < 0)
+                connection.skipAt = frameEnd(connection);
+            if ((connection.key.interestOps() & SelectionKey.OP_WRITE) == 0
+                    && (connection.cursor() != head || connection.skipAt >= 0))
+                try {
+                    flush(connection);
+                } catch (IOException e) {
+                    close(connection);
+                }
+        }
+    }
+
+    /**
+     * @return - the offset in the connection's chunk at which the frame it is sending ends.
+     */
+    private static int frameEnd(Connection connection) {
+        ByteBuffer view = connection.view;
+        int position = view.position(), limit = view.limit();
+        view.limit(connection.chunk.limit);
+        int end = 0;
+        while (end < position) {
+            view.position(end);
+            int length = Protocol.frameLength(view);
+            if (length <= 0) break;
+            end += length;
+        }
+        view.limit(limit);
+        view.position(position);
+        return end;
+    }
+
+    /**
+     * Sends as much as the socket accepts: the control frames, then the log. Waits for the socket to become
+     * writable if it did not accept everything.
+     */
+    private void flush(Connection connection) throws IOException {
+        boolean done = flushControl(connection) && flushLog(connection);
+        if (connection.key.isValid())
+            connection.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private boolean flushControl(Connection connection) throws IOException {
+        ByteBuffer control = connection.control;
+        if (control.position() == 0) return true;
+        control.flip();
+        connection.channel.write(control);
+        control.compact();
+        return control.position() == 0;
+    }
+
+    private boolean flushLog(Connection connection) throws IOException {
+        if (connection.chunk == null) return true;
+        while (true) {
+            // read next before limit: once a chunk has a next one its limit does not change anymore
+            FrameLog.Chunk next = connection.chunk.next;
+            int limit = connection.skipAt >= 0 ? connection.skipAt : connection.chunk.limit;
+            ByteBuffer view = connection.view;
+            view.limit(limit);
+            if (view.hasRemaining()) {
+                connection.channel.write(view);
+                if (view.hasRemaining()) return false;
+            }
+
+            if (connection.skipAt >= 0) {
+                connection.skipAt = -1;
+                if (!connection.table.snapshot(connection))
+                    throw new IOException("snapshot does not fit the control buffer");
+                if (!flushControl(connection)) return false;
+            }
+            else if (next != null) {
+                connection.chunk = next;
+                connection.view = next.buffer.duplicate();
+                connection.view.position(0);
+            }
+            else
+                return true;
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.table != null)
+            connection.table.unsubscribe(connection);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Asks the server thread to broadcast new frames.
+     */
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     * Encodes the changes of a table into its log, and keeps the table's current state for snapshots.
+     * The game threads append under the feed's lock; the server thread reads the log without locking.
+     */
+    private final class TableFeed implements UserInterface {
+
+        private final Player[] players;
+        private final FrameLog log = new FrameLog();
+
+        /**
+         * The current state of the table: the card in every slot (-1 if none), the tokens and the scores.
+         */
+        private final int[] cards;
+        private final boolean[][] tokens;
+        private final int[] scores;
+
+        /**
+         * The maximum length of a snapshot of the table (see snapshot).
+         */
+        private final int snapshotSize;
+
+        /**
+         * The connections of the table, and the connection playing every remote player (null if none). Used by the
+         * server thread only.
+         */
+        private Connection[] subscribers = new Connection[0];
+        private final Connection[] owners;
+
+        private TableFeed(Player[] players, int remotePlayers, int tableSize) {
+            this.players = players;
+            owners = new Connection[Math.min(remotePlayers, players.length)];
+            cards = new int[tableSize];
+            Arrays.fill(cards, -1);
+            tokens = new boolean[players.length][tableSize];
+            scores = new int[players.length];
+            // remove all tokens, a card frame per slot, and per player its score and a token frame per slot
+            snapshotSize = Protocol.MAX_FIXED_FRAME * (1 + tableSize + players.length * (1 + tableSize));
+        }
+
+        private void subscribe(Connection connection) throws IOException {
+            Connection[] updated = Arrays.copyOf(subscribers, subscribers.length + 1);
+            updated[subscribers.length] = connection;
+            subscribers = updated;
+            if (!snapshot(connection)) throw new IOException("snapshot does not fit the control buffer");
+        }
+
+        private void unsubscribe(Connection connection) {
+            for (int player = 0; player < owners.length; ++player)
+                if (owners[player] == connection) owners[player] = null;
+            for (int i = 0; i < subscribers.length; ++i)
+                if (subscribers[i] == connection) {
+                    Connection[] updated = Arrays.copyOf(subscribers, subscribers.length - 1);
+                    System.arraycopy(subscribers, i + 1, updated, i, subscribers.length - i - 1);
+                    subscribers = updated;
+                    return;
+                }
+        }
+
+        /**
+         * Encodes the current state of the table into a connection's control buffer, and moves the connection to the
+         * end of the log (atomically, so it neither misses nor repeats a change).
+         *
+         * @return - false iff the snapshot did not fit the control buffer (which then holds a partial snapshot).
+         */
+        private synchronized boolean snapshot(Connection connection) {
+            ByteBuffer out = connection.control;
+            boolean fits = Protocol.removeTokens(out, -1);
+            for (int slot = 0; slot < cards.length && fits; ++slot)
+                fits = cards[slot] >= 0 ? Protocol.placeCard(out, slot, cards[slot]) : Protocol.removeCard(out, slot);
+            for (int player = 0; player < players.length && fits; ++player) {
+                fits = Protocol.score(out, player, scores[player]);
+                for (int slot = 0; slot < cards.length && fits; ++slot)
+                    if (tokens[player][slot]) fits = Protocol.placeToken(out, player, slot);
+            }
+            if (!fits) return false;
+
+            FrameLog.Chunk tail = log.tail();
+            connection.chunk = tail;
+            connection.view = tail.buffer.duplicate();
+            connection.view.position(tail.limit);
+            return true;
+        }
+
+        /**
+         * Publishes the frame just encoded into the log and wakes the server thread up to send it.
+         */
+        private void publish() {
+            log.publish();
+            wakeup();
+        }
+
+        @Override
+        public synchronized void placeCard(int card, int slot) {
+            cards[slot] = card;
+            if (!Protocol.placeCard(log.buffer(), slot, card)) {
+                log.next();
+                Protocol.placeCard(log.buffer(), slot, card);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void removeCard(int slot) {
+            cards[slot] = -1;
+            if (!Protocol.removeCard(log.buffer(), slot)) {
+                log.next();
+                Protocol.removeCard(log.buffer(), slot);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void setCountdown(long millies, boolean warn) {
+            if (!Protocol.countdown(log.buffer(), millies, warn)) {
+                log.next();
+                Protocol.countdown(log.buffer(), millies, warn);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void setElapsed(long millies) {
+            if (!Protocol.elapsed(log.buffer(), millies)) {
+                log.next();
+                Protocol.elapsed(log.buffer(), millies);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void setScore(int player, int score) {
+            scores[player] = score;
+            if (!Protocol.score(log.buffer(), player, score)) {
+                log.next();
+                Protocol.score(log.buffer(), player, score);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void setFreeze(int player, long millies) {
+            if (!Protocol.freeze(log.buffer(), player, millies)) {
+                log.next();
+                Protocol.freeze(log.buffer(), player, millies);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void placeToken(int player, int slot) {
+            tokens[player][slot] = true;
+            if (!Protocol.placeToken(log.buffer(), player, slot)) {
+                log.next();
+                Protocol.placeToken(log.buffer(), player, slot);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void removeTokens() {
+            for (boolean[] playerTokens : tokens)
+                Arrays.fill(playerTokens, false);
+            if (!Protocol.removeTokens(log.buffer(), -1)) {
+                log.next();
+                Protocol.removeTokens(log.buffer(), -1);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void removeTokens(int slot) {
+            for (boolean[] playerTokens : tokens)
+                playerTokens[slot] = false;
+            if (!Protocol.removeTokens(log.buffer(), slot)) {
+                log.next();
+                Protocol.removeTokens(log.buffer(), slot);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void removeToken(int player, int slot) {
+            tokens[player][slot] = false;
+            if (!Protocol.removeToken(log.buffer(), player, slot)) {
+                log.next();
+                Protocol.removeToken(log.buffer(), player, slot);
+            }
+            publish();
+        }
+
+        @Override
+        public synchronized void announceWinner(int[] players) {
+            if (!Protocol.winners(log.buffer(), players)) {
+                log.next();
+                Protocol.winners(log.buffer(), players);
+            }
+            publish();
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.LatencyHistogram;
+import bguspl.set.Log;
+import bguspl.set.Util;
+import bguspl.set.UtilImpl;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a game server with simulated remote players, to measure how it behaves under load.
+ * <p>
+ * Every simulated player is a connection that joins a table as one of its players (a player can only be played by
+ * one connection, so there are at most tables * players connections) and presses keys at random times
+ * (a Poisson process with the configured rate). Every few presses it goes for a claim: a legal set it finds on the
+ * table with the configured probability, otherwise random cards. Like a person, it does not press keys while it waits
+ * for the verdict of a claim or while it is frozen. A few threads drive all the connections, each with
+ * its own selector.
+ * <p>
+ * Two latencies are measured: from a key press until the server reports the player's token on (or off) the slot, and
+ * from the press that completes a claim until the player's verdict (a new score or a freeze). Latencies are measured
+ * from the time a press was scheduled, not from the time it was actually sent, so a stalled client or server shows up
+ * as latency instead of silently sending fewer presses (coordinated omission).
+ * <p>
+ * Usage: LoadGenerator [host=localhost] [port=7777] [connections=tables*players] [tables=1] [players=HumanPlayers]
+ *        [threads=2] [seconds=30] [rate=2] [legal=0.8] [seed=...] [config=config.properties]
+ */
+public class LoadGenerator {
+
+    /**
+     * The server address.
+     */
+    private final InetSocketAddress server;
+
+    /**
+     * The number of connections, the number of tables and the number of remote players per table on the server.
+     */
+    private final int connections;
+    private final int tables;
+    private final int players;
+
+    /**
+     * The number of threads driving the connections.
+     */
+    private final int threads;
+
+    /**
+     * The mean number of key presses per second of every connection, and the probability that a claim is a legal set.
+     */
+    private final double rate;
+    private final double legalProbability;
+
+    /**
+     * The seed of the random generators.
+     */
+    private final long seed;
+
+    /**
+     * The game configuration (must match the server's) and utilities.
+     */
+    private final Config config;
+    private final Util util;
+
+    public LoadGenerator(InetSocketAddress server, int connections, int tables, int players, int threads,
+                         double rate, double legalProbability, long seed, Config config) {
+        this.server = server;
+        this.connections = connections;
+        this.tables = Math.max(1, tables);
+        this.players = Math.max(1, players);
+        if (connections > this.tables * this.players)
+            throw new IllegalArgumentException(connections + " connections for " + this.tables * this.players + " players");
+        if (!(rate > 0)) throw new IllegalArgumentException("the press rate must be positive: " + rate);
+        this.threads = Math.max(1, Math.min(threads, connections));
+        this.rate = rate;
+        this.legalProbability = legalProbability;
+        this.seed = seed;
+        this.config = config;
+        this.util = new UtilImpl(config);
+    }
+
+    /**
+     * Runs a load test against a server.
+     *
+     * @param args - key=value options (see the class documentation).
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        java.util.Properties options = new java.util.Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) options.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        Config config = new Config(options.getProperty("config", "config.properties"));
+        int tables = Integer.parseInt(options.getProperty("tables", "1"));
+        int players = Integer.parseInt(options.getProperty("players", Integer.toString(config.humanPlayers)));
+        LoadGenerator generator = new LoadGenerator(
+                new InetSocketAddress(options.getProperty("host", "localhost"), Integer.parseInt(options.getProperty("port", "7777"))),
+                Integer.parseInt(options.getProperty("connections", Integer.toString(tables * players))),
+                tables,
+                players,
+                Integer.parseInt(options.getProperty("threads", "2")),
+                Double.parseDouble(options.getProperty("rate", "2")),
+                Double.parseDouble(options.getProperty("legal", "0.8")),
+                Long.parseLong(options.getProperty("seed", Long.toString(System.nanoTime()))),
+                config);
+        generator.run(TimeUnit.SECONDS.toMillis(Long.parseLong(options.getProperty("seconds", "30")))).print(System.out);
+    }
+
+    /**
+     * The results of a run.
+     */
+    public static class Report {
+
+        public final LatencyHistogram tokenLatency = new LatencyHistogram();
+        public final LatencyHistogram verdictLatency = new LatencyHistogram();
+        public long presses;
+        public long ignoredPresses;
+        public long claims;
+        public long failedConnections;
+        public long durationNanos;
+
+        private void merge(Report other) {
+            tokenLatency.merge(other.tokenLatency);
+            verdictLatency.merge(other.verdictLatency);
+            presses += other.presses;
+            ignoredPresses += other.ignoredPresses;
+            claims += other.claims;
+            failedConnections += other.failedConnections;
+        }
+
+        /**
+         * Prints the throughput and the latency percentiles.
+         *
+         * @param out - the output.
+         */
+        public void print(PrintStream out) {
+            double seconds = durationNanos / 1e9;
+            out.printf("Info: %d presses (%.0f/s), %d without a response, %d claims, %d failed connections in %.1f s.%n",
+                    presses, presses / seconds, ignoredPresses, claims, failedConnections, seconds);
+            print(out, "press -> token", tokenLatency);
+            print(out, "claim -> verdict", verdictLatency);
+        }
+
+        private static void print(PrintStream out, String name, LatencyHistogram histogram) {
+            out.printf("Info: %-16s count %d, mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms.%n",
+                    name, histogram.count(), histogram.mean() / 1e6, histogram.percentile(50) / 1e6,
+                    histogram.percentile(90) / 1e6, histogram.percentile(99) / 1e6, histogram.percentile(99.9) / 1e6,
+                    histogram.max() / 1e6);
+        }
+    }
+
+    /**
+     * Opens the connections, presses keys for the given duration and collects the results.
+     *
+     * @param durationMillis - how long to run.
+     * @return               - the results.
+     */
+    public Report run(long durationMillis) throws IOException, InterruptedException {
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Worker> workers = new ArrayList<>();
+        for (int w = 0; w < threads; ++w)
+            workers.add(new Worker());
+        for (int c = 0; c < connections; ++c) {
+            int table = c % tables, player = (c / tables) % players;
+            workers.get(c % threads).add(new Client(table, player, root.split()));
+        }
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        List<Thread> running = new ArrayList<>();
+        for (int w = 0; w < workers.size(); ++w) {
+            Worker worker = workers.get(w);
+            Thread thread = new Thread(() -> worker.run(end), "load-generator-" + w);
+            running.add(thread);
+            thread.start();
+        }
+        for (Thread thread : running)
+            thread.join();
+
+        Report report = new Report();
+        for (Worker worker : workers)
+            report.merge(worker.report);
+        report.durationNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * A simulated remote player.
+     */
+    private final class Client {
+
+        private final int table;
+        private final int player;
+        private final SplittableRandom random;
+
+        private SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(1024);
+        private boolean joined;
+
+        /**
+         * The client's view of the table: the card in every slot (-1 if none) and the player's tokens.
+         */
+        private final int[] cards = new int[config.tableSize];
+        private final boolean[] tokens = new boolean[config.tableSize];
+        private int tokenCount;
+
+        /**
+         * The scheduled time of the last press on every slot that got no response yet (0 if none), and of the press
+         * that completed the pending claim (0 if none).
+         */
+        private final long[] pendingPress = new long[config.tableSize];
+        private long claimStart;
+
+        /**
+         * The time the player's freeze ends (the client does not press keys while the player is frozen or awaits a
+         * verdict, as the server ignores them).
+         */
+        private long frozenUntil;
+
+        /**
+         * The slots the client is about to press, and the scheduled time of its next press.
+         */
+        private final int[] plan = new int[2 * config.tableSize];
+        private int planLength, planIndex;
+        private long nextPress;
+
+        private Client(int table, int player, SplittableRandom random) {
+            this.table = table;
+            this.player = player;
+            this.random = random;
+            Arrays.fill(cards, -1);
+        }
+
+        private long interval() {
+            return (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+        }
+
+        /**
+         * Plans the presses of the next claim: off with the tokens that are not part of it, on with the missing ones.
+         */
+        private void planClaim() {
+            planLength = planIndex = 0;
+            int[] target = random.nextDouble() < legalProbability ? legalSet() : null;
+            if (target == null) target = randomSlots();
+            if (target == null) return;
+
+            for (int slot = 0; slot < tokens.length; ++slot)
+                if (tokens[slot] && !contains(target, slot))
+                    plan[planLength++] = slot;
+            for (int slot : target)
+                if (!tokens[slot])
+                    plan[planLength++] = slot;
+        }
+
+        private int[] legalSet() {
+            List<Integer> onTable = new ArrayList<>();
+            for (int card : cards)
+                if (card >= 0) onTable.add(card);
+            List<int[]> sets = util.findSets(onTable, 1);
+            if (sets.isEmpty()) return null;
+            int[] slots = sets.get(0);
+            for (int i = 0; i < slots.length; ++i)
+                for (int slot = 0; slot < cards.length; ++slot)
+                    if (cards[slot] == slots[i]) {
+                        slots[i] = slot;
+                        break;
+                    }
+            return slots;
+        }
+
+        private int[] randomSlots() {
+            int[] slots = new int[config.featureSize];
+            int filled = 0;
+            for (int card : cards)
+                if (card >= 0) ++filled;
+            if (filled < slots.length) return null;
+            for (int i = 0; i < slots.length; ++i) {
+                int slot;
+                do slot = random.nextInt(cards.length);
+                while (cards[slot] < 0 || contains(slots, i, slot));
+                slots[i] = slot;
+            }
+            return slots;
+        }
+
+        private boolean contains(int[] slots, int slot) {
+            return contains(slots, slots.length, slot);
+        }
+
+        private boolean contains(int[] slots, int length, int slot) {
+            for (int i = 0; i < length; ++i)
+                if (slots[i] == slot) return true;
+            return false;
+        }
+    }
+
+    /**
+     * A thread that drives a share of the connections.
+     */
+    private final class Worker {
+
+        private final List<Client> clients = new ArrayList<>();
+        private final Report report = new Report();
+        private Selector selector;
+
+        private void add(Client client) {
+            clients.add(client);
+        }
+
+        private void run(long end) {
+            try {
+                selector = Selector.open();
+                for (Client client : clients)
+                    connect(client);
+
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    long next = end;
+                    for (Client client : clients) {
+                        if (!client.joined) continue;
+                        while (client.nextPress <= now)
+                            press(client, client.nextPress);
+                        next = Math.min(next, client.nextPress);
+                    }
+                    long timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now));
+                    selector.select(timeout);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Client client = (Client) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) read(client);
+                            if (key.isValid() && key.isWritable()) write(client);
+                        } catch (IOException e) {
+                            fail(client);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.warning("load generator thread failed: %s", e);
+            } finally {
+                for (Client client : clients)
+                    if (client.channel != null)
+                        try { client.channel.close(); } catch (IOException ignored) {}
+                try { if (selector != null) selector.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void connect(Client client) {
+            try {
+                client.channel = SocketChannel.open(server);
+                client.channel.socket().setTcpNoDelay(true);
+                client.channel.configureBlocking(false);
+                client.channel.register(selector, SelectionKey.OP_READ, client);
+                Protocol.join(client.out, client.table, client.player);
+                write(client);
+            } catch (IOException e) {
+                fail(client);
+            }
+        }
+
+        private void fail(Client client) {
+            ++report.failedConnections;
+            client.joined = false;
+            if (client.channel != null) {
+                try { client.channel.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        /**
+         * Sends the next planned press of a client.
+         *
+         * @param client    - the client.
+         * @param scheduled - the time the press was scheduled for.
+         */
+        private void press(Client client, long scheduled) {
+            client.nextPress = scheduled + client.interval();
+            if (scheduled < client.frozenUntil || client.claimStart != 0 && client.tokenCount == config.featureSize)
+                return;
+            // the claim lost tokens without a verdict: the dealer cancelled it (a later score is not its verdict)
+            client.claimStart = 0;
+            if (client.planIndex == client.planLength) {
+                client.planClaim();
+                if (client.planLength == 0) return;
+            }
+            int slot = client.plan[client.planIndex++];
+            if (client.pendingPress[slot] != 0) ++report.ignoredPresses;
+            client.pendingPress[slot] = scheduled;
+            ++report.presses;
+            if (!Protocol.key(client.out, slot)) {
+                fail(client);
+                return;
+            }
+            try {
+                write(client);
+            } catch (IOException e) {
+                fail(client);
+            }
+        }
+
+        private void write(Client client) throws IOException {
+            client.out.flip();
+            client.channel.write(client.out);
+            client.out.compact();
+            SelectionKey key = client.channel.keyFor(selector);
+            if (key != null && key.isValid())
+                key.interestOps(client.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void read(Client client) throws IOException {
+            if (client.channel.read(client.in) < 0) {
+                fail(client);
+                return;
+            }
+            long now = System.nanoTime();
+            ByteBuffer in = client.in;
+            in.flip();
+            while (Protocol.hasFrame(in)) {
+                int length = Protocol.frameLength(in);
+                int start = in.position();
+                handle(client, in, now);
+                in.position(start + length);
+            }
+            in.compact();
+        }
+
+        /**
+         * Updates a client's view of the table from a frame and records the latencies it completes.
+         */
+        private void handle(Client client, ByteBuffer in, long now) {
+            byte type = in.get();
+            switch (type) {
+                case Protocol.JOINED:
+                    client.joined = true;
+                    client.nextPress = now + client.interval();
+                    break;
+                case Protocol.REJECTED:
+                    fail(client);
+                    break;
+                case Protocol.PLACE_CARD: {
+                    int slot = in.getShort();
+                    client.cards[slot] = in.getInt();
+                    break;
+                }
+                case Protocol.REMOVE_CARD:
+                    client.cards[in.getShort()] = -1;
+                    break;
+                case Protocol.PLACE_TOKEN: {
+                    int player = in.getShort(), slot = in.getShort();
+                    if (player != client.player || client.tokens[slot]) break;
+                    client.tokens[slot] = true;
+                    ++client.tokenCount;
+                    long scheduled = respond(client, slot, now);
+                    if (client.tokenCount == config.featureSize) {
+                        client.claimStart = scheduled != 0 ? scheduled : now;
+                        ++report.claims;
+                    }
+                    break;
+                }
+                case Protocol.REMOVE_TOKEN: {
+                    int player = in.getShort(), slot = in.getShort();
+                    if (player != client.player) break;
+                    removeToken(client, slot);
+                    respond(client, slot, now);
+                    break;
+                }
+                case Protocol.REMOVE_TOKENS: {
+                    int slot = in.getShort();
+                    if (slot >= 0) removeToken(client, slot);
+                    else
+                        for (int s = 0; s < client.tokens.length; ++s)
+                            removeToken(client, s);
+                    break;
+                }
+                case Protocol.SCORE:
+                    if (in.getShort() == client.player) verdict(client, now);
+                    break;
+                case Protocol.FREEZE: {
+                    int player = in.getShort(), millis = in.getInt();
+                    if (player != client.player) break;
+                    client.frozenUntil = now + TimeUnit.MILLISECONDS.toNanos(millis);
+                    if (millis > 0) verdict(client, now);
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        private void removeToken(Client client, int slot) {
+            if (!client.tokens[slot]) return;
+            client.tokens[slot] = false;
+            --client.tokenCount;
+        }
+
+        /**
+         * Records the token latency of the pending press on a slot, if any.
+         *
+         * @return - the time the press was scheduled for (0 if there was none).
+         */
+        private long respond(Client client, int slot, long now) {
+            long scheduled = client.pendingPress[slot];
+            if (scheduled == 0) return 0;
+            client.pendingPress[slot] = 0;
+            report.tokenLatency.record(now - scheduled);
+            return scheduled;
+        }
+
+        private void verdict(Client client, long now) {
+            if (client.claimStart == 0) return;
+            report.verdictLatency.record(now - client.claimStart);
+            client.claimStart = 0;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package bguspl.set.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol between the game server and its clients.
+ * <p>
+ * Every frame starts with a one byte type, and the type determines the length of the rest of the frame (big endian):
+ * <pre>
+ * client to server:
+ *   JOIN          int table, short player          - play as a player of a table, or watch it if player is -1
+ *   KEY           short slot                       - the player pressed the key of a slot
+ * server to client:
+ *   JOINED        short player                     - the client joined as the player (-1 if watching), a snapshot of
+ *                                                    the table follows
+ *   REJECTED                                       - the table or the player are unknown, or the player is taken or
+ *                                                    not a remote player
+ *   PLACE_CARD    short slot, int card
+ *   REMOVE_CARD   short slot
+ *   PLACE_TOKEN   short player, short slot
+ *   REMOVE_TOKEN  short player, short slot
+ *   REMOVE_TOKENS short slot (-1 for all the slots)
+ *   SCORE         short player, int score
+ *   FREEZE        short player, int millis
+ *   COUNTDOWN     int millis, byte warn
+ *   ELAPSED       int millis
+ *   WINNERS       short count, short player * count
+ * </pre>
+ * The encoders write a frame into a buffer the caller owns, and return false (writing nothing) if it does not fit.
+ */
+public final class Protocol {
+
+    public static final byte JOIN = 1;
+    public static final byte KEY = 2;
+
+    public static final byte JOINED = 16;
+    public static final byte PLACE_CARD = 17;
+    public static final byte REMOVE_CARD = 18;
+    public static final byte PLACE_TOKEN = 19;
+    public static final byte REMOVE_TOKEN = 20;
+    public static final byte REMOVE_TOKENS = 21;
+    public static final byte SCORE = 22;
+    public static final byte FREEZE = 23;
+    public static final byte COUNTDOWN = 24;
+    public static final byte ELAPSED = 25;
+    public static final byte WINNERS = 26;
+    public static final byte REJECTED = 27;
+
+    /**
+     * The length of the longest frame with a fixed length (WINNERS frames are longer, depending on the players).
+     */
+    public static final int MAX_FIXED_FRAME = 7;
+
+    private Protocol() {}
+
+    /**
+     * Returns the length of the frame at the buffer's position (without consuming anything).
+     *
+     * @param buffer - a buffer in read mode.
+     * @return       - the length of the frame including its type, 0 if not enough bytes arrived to tell, or -1 if the
+     *                 type is unknown.
+     */
+    public static int frameLength(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) return 0;
+        int position = buffer.position();
+        switch (buffer.get(position)) {
+            case JOIN: return 7;
+            case KEY: return 3;
+            case JOINED: return 3;
+            case PLACE_CARD: return 7;
+            case REMOVE_CARD: return 3;
+            case PLACE_TOKEN: return 5;
+            case REMOVE_TOKEN: return 5;
+            case REMOVE_TOKENS: return 3;
+            case SCORE: return 7;
+            case FREEZE: return 7;
+            case COUNTDOWN: return 6;
+            case ELAPSED: return 5;
+            case REJECTED: return 1;
+            case WINNERS:
+                return buffer.remaining() < 3 ? 0 : 3 + 2 * buffer.getShort(position + 1);
+            default: return -1;
+        }
+    }
+
+    /**
+     * @return - true iff a whole frame is available at the buffer's position.
+     */
+    public static boolean hasFrame(ByteBuffer buffer) {
+        int length = frameLength(buffer);
+        return length > 0 && buffer.remaining() >= length;
+    }
+
+    public static boolean join(ByteBuffer out, int table, int player) {
+        if (out.remaining() < 7) return false;
+        out.put(JOIN).putInt(table).putShort((short) player);
+        return true;
+    }
+
+    public static boolean key(ByteBuffer out, int slot) {
+        if (out.remaining() < 3) return false;
+        out.put(KEY).putShort((short) slot);
+        return true;
+    }
+
+    public static boolean joined(ByteBuffer out, int player) {
+        if (out.remaining() < 3) return false;
+        out.put(JOINED).putShort((short) player);
+        return true;
+    }
+
+    public static boolean rejected(ByteBuffer out) {
+        if (out.remaining() < 1) return false;
+        out.put(REJECTED);
+        return true;
+    }
+
+    public static boolean placeCard(ByteBuffer out, int slot, int card) {
+        if (out.remaining() < 7) return false;
+        out.put(PLACE_CARD).putShort((short) slot).putInt(card);
+        return true;
+    }
+
+    public static boolean removeCard(ByteBuffer out, int slot) {
+        if (out.remaining() < 3) return false;
+        out.put(REMOVE_CARD).putShort((short) slot);
+        return true;
+    }
+
+    public static boolean placeToken(ByteBuffer out, int player, int slot) {
+        if (out.remaining() < 5) return false;
+        out.put(PLACE_TOKEN).putShort((short) player).putShort((short) slot);
+        return true;
+    }
+
+    public static boolean removeToken(ByteBuffer out, int player, int slot) {
+        if (out.remaining() < 5) return false;
+        out.put(REMOVE_TOKEN).putShort((short) player).putShort((short) slot);
+        return true;
+    }
+
+    public static boolean removeTokens(ByteBuffer out, int slot) {
+        if (out.remaining() < 3) return false;
+        out.put(REMOVE_TOKENS).putShort((short) slot);
+        return true;
+    }
+
+    public static boolean score(ByteBuffer out, int player, int score) {
+        if (out.remaining() < 7) return false;
+        out.put(SCORE).putShort((short) player).putInt(score);
+        return true;
+    }
+
+    public static boolean freeze(ByteBuffer out, int player, long millis) {
+        if (out.remaining() < 7) return false;
+        out.put(FREEZE).putShort((short) player).putInt(clamp(millis));
+        return true;
+    }
+
+    public static boolean countdown(ByteBuffer out, long millis, boolean warn) {
+        if (out.remaining() < 6) return false;
+        out.put(COUNTDOWN).putInt(clamp(millis)).put((byte) (warn ? 1 : 0));
+        return true;
+    }
+
+    public static boolean elapsed(ByteBuffer out, long millis) {
+        if (out.remaining() < 5) return false;
+        out.put(ELAPSED).putInt(clamp(millis));
+        return true;
+    }
+
+    public static boolean winners(ByteBuffer out, int[] players) {
+        if (out.remaining() < 3 + 2 * players.length) return false;
+        out.put(WINNERS).putShort((short) players.length);
+        for (int player : players)
+            out.putShort((short) player);
+        return true;
+    }
+
+    private static int clamp(long millis) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, millis));
+    }
+}
@@ -0,0 +1,410 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.Log;
+import bguspl.set.UtilImpl;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets bot processes on the same machine play the computer players of a table through a memory-mapped file, with no
+ * sockets and no serialization on the way.
+ * <p>
+ * The host thread publishes the table (the cards, every player's tokens and state) into the file whenever it changes,
+ * under a sequence counter that is odd while the table is being written, so a bot copies it the way Table.Snapshot is
+ * copied: read the counter, copy, and retry if the counter changed. Every player has its own single-producer
+ * single-consumer ring of key presses in the file: the bot writes slots and advances the tail, the host presses them
+ * for the player and advances the head.
+ * <p>
+ * File layout (native byte order): a 64 byte header (magic, version, players, tableSize, ring capacity, game over
+ * flag: ints), the table (sequence: long, the card in every slot: ints, -1 if empty, every player's token on every
+ * slot and every player's state: bytes, see Player.State), then the rings, each on its own cache lines: head (long),
+ * tail (long), slots (ints). Stores are ordered with fences, as the Java memory model does not cover other processes.
+ * <p>
+ * The host thread polls the rings with a backoff: right after a change or a key press it polls again within
+ * microseconds, and every idle poll doubles the wait up to a millisecond, so an idle channel costs almost nothing.
+ */
+public class SharedMemoryBots implements Runnable {
+
+    private static final int MAGIC = 0x53455442; // "SETB"
+    private static final int VERSION = 1;
+
+    /**
+     * The number of key presses a ring holds (a power of two), and the shortest and longest time between two polls.
+     */
+    static final int RING_CAPACITY = 64;
+    private static final long MIN_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int CACHE_LINE = 64;
+    private static final int PLAYERS = 8;
+    private static final int TABLE_SIZE = 12;
+    private static final int CAPACITY = 16;
+    private static final int GAME_OVER = 20;
+    private static final int SEQUENCE = CACHE_LINE;
+    private static final int CARDS = SEQUENCE + Long.BYTES;
+    private static final int HEAD = 0;
+    private static final int TAIL = CACHE_LINE;
+    private static final int SLOTS = 2 * CACHE_LINE;
+
+    /**
+     * Written and read by fence().
+     */
+    private static volatile int fence;
+
+    /**
+     * A full fence: the accesses to the file before it are done before the ones after it. No access is moved after a
+     * volatile write or before a volatile read, and the two are not reordered, by the compilers or the processor.
+     *
+     * @return - nothing meaningful (the read must not be dropped).
+     */
+    private static int fence() {
+        fence = 0;
+        return fence;
+    }
+
+    /**
+     * Waits between polls: the wait doubles with every idle poll, and is reset by activity.
+     */
+    private static final class Backoff {
+
+        private long nanos = MIN_POLL_NANOS;
+
+        private void idle(boolean active) {
+            nanos = active ? MIN_POLL_NANOS : Math.min(2 * nanos, MAX_POLL_NANOS);
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    /**
+     * The offsets of a channel's parts in the file.
+     */
+    private static final class Layout {
+
+        final int players;
+        final int tableSize;
+        final int tokens;
+        final int states;
+        final int rings;
+        final int ringSize;
+        final int size;
+
+        Layout(int players, int tableSize) {
+            this.players = players;
+            this.tableSize = tableSize;
+            tokens = CARDS + tableSize * Integer.BYTES;
+            states = tokens + players * tableSize;
+            rings = align(states + players);
+            ringSize = SLOTS + align(RING_CAPACITY * Integer.BYTES);
+            size = rings + players * ringSize;
+        }
+
+        int ring(int player) {
+            return rings + player * ringSize;
+        }
+
+        private static int align(int offset) {
+            return (offset + CACHE_LINE - 1) / CACHE_LINE * CACHE_LINE;
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (size > 0) raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+    }
+
+    private final Table table;
+    private final Player[] players;
+    private final int firstBot;
+    private final Layout layout;
+    private final MappedByteBuffer channel;
+
+    /**
+     * The last table published, and the players' states in it.
+     */
+    private final Table.Snapshot snapshot;
+    private final Player.State[] states;
+    private long published = -1;
+
+    private volatile boolean terminate;
+    private Thread thread;
+
+    /**
+     * The class constructor: creates the channel file (replacing an old one). Bots can connect once the host thread
+     * started.
+     *
+     * @param file      - the channel file.
+     * @param table     - the table the bots play at.
+     * @param players   - the players of the table (they may be created later, before the host thread starts).
+     * @param tableSize - the number of slots on the table.
+     * @param firstBot  - the id of the first player the bots may play (the players before it are ignored).
+     */
+    public SharedMemoryBots(Path file, Table table, Player[] players, int tableSize, int firstBot) throws IOException {
+        this.table = table;
+        this.players = players;
+        this.firstBot = firstBot;
+        snapshot = new Table.Snapshot(table);
+        states = new Player.State[players.length];
+        layout = new Layout(players.length, tableSize);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(0); // drop an old channel's contents
+        }
+        channel = map(file, layout.size);
+        channel.putInt(PLAYERS, layout.players).putInt(TABLE_SIZE, layout.tableSize).putInt(CAPACITY, RING_CAPACITY);
+    }
+
+    /**
+     * @param player - a player id.
+     * @return       - true iff the player is played by a bot through the channel (rather than by the game).
+     */
+    public boolean serves(int player) {
+        return player >= firstBot && player < players.length;
+    }
+
+    /**
+     * Starts the host thread.
+     */
+    public void start() {
+        thread = new Thread(this, "bot-host");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Tells the bots the game is over and stops the host thread.
+     */
+    public void terminate() {
+        terminate = true;
+        if (thread != null)
+            try { thread.join(); } catch (InterruptedException ignored) {}
+        fence();
+        channel.putInt(GAME_OVER, 1);
+    }
+
+    /**
+     * The main loop of the host thread: publishes the table when it changes and presses the keys the bots sent.
+     */
+    @Override
+    public void run() {
+        Log.info("Thread %s starting.", Thread.currentThread().getName());
+        publish();
+        fence();
+        channel.putInt(0, MAGIC).putInt(Integer.BYTES, VERSION);
+        Backoff backoff = new Backoff();
+        while (!terminate) {
+            boolean active = publish();
+            for (int player = firstBot; player < players.length; ++player)
+                active |= drain(player);
+            backoff.idle(active);
+        }
+        Log.info("Thread %s terminated.", Thread.currentThread().getName());
+    }
+
+    /**
+     * Publishes the table if it (or the state of a player) changed since the last time.
+     *
+     * @return - true iff the table was published.
+     */
+    private boolean publish() {
+        table.snapshot(snapshot);
+        boolean changed = snapshot.version() != published;
+        for (int player = 0; player < players.length; ++player) {
+            Player.State state = players[player].state();
+            changed |= state != states[player];
+            states[player] = state;
+        }
+        if (!changed) return false;
+
+        long sequence = channel.getLong(SEQUENCE);
+        channel.putLong(SEQUENCE, sequence + 1);
+        fence();
+        for (int slot = 0; slot < layout.tableSize; ++slot)
+            channel.putInt(CARDS + slot * Integer.BYTES, snapshot.card(slot));
+        for (int player = 0; player < layout.players; ++player) {
+            for (int slot = 0; slot < layout.tableSize; ++slot)
+                channel.put(layout.tokens + player * layout.tableSize + slot,
+                        (byte) (snapshot.hasToken(player, slot) ? 1 : 0));
+            channel.put(layout.states + player, (byte) states[player].ordinal());
+        }
+        fence();
+        channel.putLong(SEQUENCE, sequence + 2);
+        published = snapshot.version();
+        return true;
+    }
+
+    /**
+     * Presses the keys a bot sent for a player.
+     *
+     * @return - true iff the bot sent keys.
+     */
+    private boolean drain(int player) {
+        int ring = layout.ring(player);
+        long head = channel.getLong(ring + HEAD);
+        long tail = channel.getLong(ring + TAIL);
+        if (head == tail) return false;
+        fence();
+        for (; head < tail; ++head) {
+            int slot = channel.getInt(ring + SLOTS + (int) (head & (RING_CAPACITY - 1)) * Integer.BYTES);
+            if (slot >= 0 && slot < layout.tableSize)
+                players[player].keyPressed(slot);
+        }
+        fence();
+        channel.putLong(ring + HEAD, head);
+        return true;
+    }
+
+    /**
+     * The bot side of a channel: reads the table and sends the key presses of one player.
+     */
+    public static final class Client {
+
+        private final MappedByteBuffer channel;
+        private final Layout layout;
+        private final int ring;
+        private long tail;
+
+        /**
+         * @param file   - the channel file (created by the game).
+         * @param player - the id of the player the bot plays.
+         * @throws IOException - if the file cannot be mapped or the game did not open the channel yet.
+         */
+        public Client(Path file, int player) throws IOException {
+            channel = map(file, 0);
+            if (channel.capacity() < CACHE_LINE || channel.getInt(0) != MAGIC || channel.getInt(Integer.BYTES) != VERSION
+                    || channel.getInt(CAPACITY) != RING_CAPACITY)
+                throw new IOException("not a bot channel: " + file);
+            fence();
+            layout = new Layout(channel.getInt(PLAYERS), channel.getInt(TABLE_SIZE));
+            if (player < 0 || player >= layout.players)
+                throw new IllegalArgumentException("no player " + player);
+            ring = layout.ring(player);
+            tail = channel.getLong(ring + TAIL);
+        }
+
+        public int players() {
+            return layout.players;
+        }
+
+        public int tableSize() {
+            return layout.tableSize;
+        }
+
+        /**
+         * Copies a consistent view of the table.
+         *
+         * @param cards  - receives the card in every slot (-1 if empty).
+         * @param tokens - receives every player's tokens (by player and slot).
+         * @param states - receives every player's state.
+         * @return       - the version of the table copied (it increases with every change).
+         */
+        public long read(int[] cards, boolean[][] tokens, Player.State[] states) {
+            Player.State[] values = Player.State.values();
+            while (true) {
+                long sequence = channel.getLong(SEQUENCE);
+                fence();
+                if ((sequence & 1) == 0) {
+                    for (int slot = 0; slot < layout.tableSize; ++slot)
+                        cards[slot] = channel.getInt(CARDS + slot * Integer.BYTES);
+                    for (int player = 0; player < layout.players; ++player) {
+                        for (int slot = 0; slot < layout.tableSize; ++slot)
+                            tokens[player][slot] = channel.get(layout.tokens + player * layout.tableSize + slot) != 0;
+                        states[player] = values[channel.get(layout.states + player)];
+                    }
+                    fence();
+                    if (channel.getLong(SEQUENCE) == sequence) return sequence / 2;
+                }
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Sends a key press of the player.
+         *
+         * @param slot - the slot pressed.
+         * @return     - true iff the press was sent (false if the ring is full).
+         */
+        public boolean press(int slot) {
+            if (tail - channel.getLong(ring + HEAD) >= RING_CAPACITY) return false;
+            channel.putInt(ring + SLOTS + (int) (tail & (RING_CAPACITY - 1)) * Integer.BYTES, slot);
+            fence();
+            channel.putLong(ring + TAIL, ++tail);
+            return true;
+        }
+
+        /**
+         * @return - true iff the game is over.
+         */
+        public boolean gameOver() {
+            return channel.getInt(GAME_OVER) != 0;
+        }
+    }
+
+    /**
+     * A sample bot process: plays a player through a channel, claiming the first set it finds on the table.
+     *
+     * @param args - the channel file and the player id.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: SharedMemoryBots <channel file> <player>");
+            System.exit(1);
+        }
+        int player = Integer.parseInt(args[1]);
+        Client client = null;
+        for (int attempt = 0; client == null; ++attempt) {
+            try {
+                client = new Client(Paths.get(args[0]), player);
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+        Config config = new Config("config.properties");
+        UtilImpl util = new UtilImpl(config);
+
+        int[] cards = new int[client.tableSize()];
+        boolean[][] tokens = new boolean[client.players()][client.tableSize()];
+        Player.State[] states = new Player.State[client.players()];
+        List<Integer> tableCards = new ArrayList<>();
+        long seen = -1, played = -1;
+        Backoff backoff = new Backoff();
+        while (!client.gameOver()) {
+            long version = client.read(cards, tokens, states);
+            boolean active = version != seen;
+            seen = version;
+            if (version != played && (states[player] == Player.State.IDLE || states[player] == Player.State.SELECTING)) {
+                played = version;
+                tableCards.clear();
+                for (int card : cards)
+                    if (card >= 0) tableCards.add(card);
+                List<int[]> sets = util.findSets(tableCards, 1);
+                if (!sets.isEmpty()) {
+                    // move the player's tokens to the set: remove the others, then place the missing ones
+                    boolean[] chosen = new boolean[cards.length];
+                    for (int card : sets.get(0))
+                        for (int slot = 0; slot < cards.length; ++slot)
+                            if (cards[slot] == card) chosen[slot] = true;
+                    for (int slot = 0; slot < cards.length; ++slot)
+                        if (tokens[player][slot] != chosen[slot]) client.press(slot);
+                }
+            }
+            backoff.idle(active);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnalyticsTest {
+
+    static final long MILLIS = 1_000_000;
+
+    @Test
+    void total_CountsEveryVerdict() {
+        Analytics analytics = new Analytics(2, 1000, 3, 0);
+        for (int claim = 1; claim <= 100; ++claim)
+            analytics.verdict(0, claim % 4 == 0 ? Analytics.Outcome.PENALTY : Analytics.Outcome.POINT,
+                    claim * MILLIS, claim % 4 == 0 ? 3000 : 1000, 100L * claim);
+        analytics.verdict(1, Analytics.Outcome.CANCELLED, 5 * MILLIS, 0, 500);
+
+        Analytics.Stats player = analytics.total(0, 60000);
+        assertEquals(100, player.claims());
+        assertEquals(75, player.points());
+        assertEquals(25, player.penalties());
+        assertEquals(0.25, player.falseClaimRatio(), 1e-9);
+        assertEquals(75, player.setsPerMinute(), 1e-9);
+        assertEquals(150000, player.frozenMillis());
+        assertEquals(50, player.reactionMillis(50), 50 * 0.04);
+        assertEquals(99, player.reactionMillis(99), 99 * 0.04);
+
+        // a cancelled claim is counted apart, without a reaction time
+        assertEquals(0, analytics.total(1, 60000).claims());
+        Analytics.Stats table = analytics.total(-1, 60000);
+        assertEquals(100, table.claims());
+        assertEquals(1, table.cancelled());
+        assertEquals(0.25, table.falseClaimRatio(), 1e-9);
+    }
+
+    @Test
+    void recent_ForgetsOldWindows() {
+        Analytics analytics = new Analytics(1, 1000, 3, 0);
+        // one slow claim per second for 10 seconds, then fast claims
+        for (int second = 0; second < 10; ++second)
+            analytics.verdict(0, Analytics.Outcome.POINT, 2000 * MILLIS, 1000, second * 1000L + 500);
+        for (int second = 10; second < 13; ++second)
+            analytics.verdict(0, Analytics.Outcome.PENALTY, 10 * MILLIS, 3000, second * 1000L + 500);
+
+        Analytics.Stats recent = analytics.recent(0, 12900);
+        assertEquals(3, recent.claims());
+        assertEquals(0, recent.points());
+        assertEquals(1, recent.falseClaimRatio(), 1e-9);
+        assertEquals(10, recent.reactionMillis(99), 1);
+
+        Analytics.Stats total = analytics.total(0, 12900);
+        assertEquals(13, total.claims());
+        assertEquals(2000, total.reactionMillis(50), 2000 * 0.04);
+
+        // nothing was claimed in the last 3 seconds
+        assertEquals(0, analytics.recent(0, 20000).claims());
+    }
+}
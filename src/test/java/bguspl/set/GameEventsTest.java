@@ -0,0 +1,77 @@
+package bguspl.set;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameEventsTest {
+
+    @TempDir
+    Path directory;
+
+    Util util;
+    List<Integer> deck;
+
+    @BeforeEach
+    void setUp() {
+        Config config = new Config(new Properties());
+        util = new UtilImpl(config);
+        deck = IntStream.range(0, 12).boxed().collect(Collectors.toList());
+    }
+
+    private List<RecordedEvent> record(Recording recording) throws Exception {
+        recording.start();
+        util.findSets(deck, 2);
+        util.countSets(deck);
+        recording.stop();
+        Path file = directory.resolve("game.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals("bguspl.set.FindSets"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void profile_RecordsFindSets() throws Exception {
+        Configuration configuration;
+        try (Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("set-game.jfc"), StandardCharsets.UTF_8)) {
+            configuration = Configuration.create(reader);
+        }
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording(configuration)) {
+            events = record(recording);
+        }
+
+        assertEquals(2, events.size());
+        assertEquals("findSets", events.get(0).getString("operation"));
+        assertEquals(12, events.get(0).getInt("deckSize"));
+        assertEquals(2, events.get(0).getInt("found"));
+        assertEquals("countSets", events.get(1).getString("operation"));
+        assertEquals(util.countSets(deck), events.get(1).getInt("found"));
+    }
+
+    @Test
+    void defaultSettings_RecordNothing() throws Exception {
+        try (Recording recording = new Recording()) {
+            assertTrue(record(recording).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GameHistoryTest {
+
+    @TempDir
+    Path directory;
+
+    Config twoPlayers;
+    Config threePlayers;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = new Properties();
+        properties.put("HumanPlayers", "1");
+        properties.put("ComputerPlayers", "1");
+        twoPlayers = new Config(properties);
+        properties.put("ComputerPlayers", "2");
+        threePlayers = new Config(properties);
+    }
+
+    @Test
+    void append_SurvivesReopeningAcrossSegments() throws IOException {
+        // segments of 3 games and 4 players, so the games span several segments of both tables
+        GameHistory history = new GameHistory(directory, 3, 4);
+        for (int game = 0; game < 10; ++game)
+            history.append(twoPlayers, 1000L * game, 100 + game, new int[]{game, 5}, new int[]{1, 0},
+                    game < 6 ? new int[]{1} : new int[]{0});
+
+        GameHistory reopened = new GameHistory(directory, 3, 4);
+        assertEquals(10, reopened.games());
+        assertEquals(104.5, reopened.averageDurationMillis(), 1e-9);
+        assertEquals(0.4, reopened.winRate(0), 1e-9);
+        assertEquals(0.6, reopened.winRate(1), 1e-9);
+        assertEquals(0.4, reopened.winRate(true), 1e-9);
+        assertEquals(0.6, reopened.winRate(false), 1e-9);
+    }
+
+    @Test
+    void statsByConfig_AggregatesEveryConfig() throws IOException {
+        GameHistory history = new GameHistory(directory, 4, 8);
+        history.append(twoPlayers, 0, 1000, new int[]{3, 1}, new int[]{0, 2}, new int[]{0});
+        history.append(threePlayers, 0, 3000, new int[]{0, 0, 3}, new int[]{1, 1, 1}, new int[]{2});
+        history.append(twoPlayers, 0, 2000, new int[]{2, 2}, new int[]{0, 0}, new int[]{0, 1});
+
+        Map<String, GameHistory.Stats> stats = history.statsByConfig();
+        assertEquals(2, stats.size());
+
+        GameHistory.Stats two = stats.get(GameHistory.signature(twoPlayers));
+        assertEquals(2, two.games());
+        assertEquals(1500, two.averageDurationMillis(), 1e-9);
+        assertEquals(2, two.averageScore(), 1e-9);
+        assertEquals(0.5, two.averagePenalties(), 1e-9);
+
+        GameHistory.Stats three = stats.get(GameHistory.signature(threePlayers));
+        assertEquals(1, three.games());
+        assertEquals(1, three.averageScore(), 1e-9);
+        assertEquals(1, three.averagePenalties(), 1e-9);
+        assertEquals(2.0 / 3, history.winRate(0), 1e-9);
+    }
+
+    @Test
+    void open_DropsThePlayerRowsOfAGameThatWasNotCommitted() throws IOException {
+        GameHistory history = new GameHistory(directory, 4, 3);
+        history.append(twoPlayers, 0, 1000, new int[]{3, 1}, new int[]{0, 0}, new int[]{0});
+        byte[] committed = Files.readAllBytes(directory.resolve("games-000000.seg"));
+
+        // a crash after the player rows of the second game were committed, but not its game row
+        history.append(twoPlayers, 0, 1000, new int[]{0, 4}, new int[]{0, 0}, new int[]{1});
+        Files.write(directory.resolve("games-000000.seg"), committed);
+
+        GameHistory reopened = new GameHistory(directory, 4, 3);
+        assertEquals(1, reopened.games());
+        assertEquals(1, reopened.winRate(0), 1e-9);
+        reopened.append(twoPlayers, 0, 1000, new int[]{5, 1}, new int[]{0, 0}, new int[]{0});
+        assertEquals(1, reopened.winRate(0), 1e-9);
+        assertEquals(0, reopened.winRate(1), 1e-9);
+        assertEquals(2.5, reopened.statsByConfig().get(GameHistory.signature(twoPlayers)).averageScore(), 1e-9);
+    }
+
+    @Test
+    void appendLater_RecordsTheGameInTheBackground() throws Exception {
+        GameHistory history = new GameHistory(directory, 4, 8);
+        history.appendLater(twoPlayers, 0, 1000, new int[]{3, 1}, new int[]{0, 2}, new int[]{0});
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (history.games() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, history.games());
+        assertEquals(1, history.winRate(0), 1e-9);
+    }
+}
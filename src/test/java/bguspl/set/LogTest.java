@@ -0,0 +1,63 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogTest {
+
+    ByteArrayOutputStream output;
+
+    @BeforeEach
+    void setUp() {
+        output = new ByteArrayOutputStream();
+        Log.setOutput(new PrintStream(output, true));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Log.setOutput(System.out);
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    void info_IsFormattedByTheWriter() {
+        Log.info("player %d scored %s.", 2, "a point");
+        Log.warning("no sets left");
+        Log.flush();
+
+        assertEquals(String.format("Info: player 2 scored a point.%nWarning: no sets left%n"), output.toString());
+    }
+
+    @Test
+    void setLevel_FiltersLowerLevels() {
+        Log.setLevel(Log.Level.WARNING);
+        assertFalse(Log.enabled(Log.Level.INFO));
+        assertTrue(Log.enabled(Log.Level.WARNING));
+
+        Log.info("hidden");
+        Log.warning("shown");
+        Log.flush();
+
+        assertEquals(String.format("Warning: shown%n"), output.toString());
+    }
+
+    @Test
+    void log_KeepsTheOrderAcrossThreads() throws InterruptedException {
+        Log.info("first");
+        Thread other = new Thread(() -> Log.info("second"));
+        other.start();
+        other.join();
+        Log.info("third");
+        Log.flush();
+
+        assertEquals(String.format("Info: first%nInfo: second%nInfo: third%n"), output.toString());
+    }
+}
@@ -0,0 +1,56 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MonteCarloTest {
+
+    private static MonteCarlo simulation(int workers) {
+        Properties properties = new Properties();
+        Config config = new Config(properties);
+        return new MonteCarlo(config, new UtilImpl(config), workers);
+    }
+
+    @Test
+    void statistic_MergeMatchesSequential() {
+        Random random = new Random(0);
+        MonteCarlo.Statistic all = new MonteCarlo.Statistic(), first = new MonteCarlo.Statistic(), second = new MonteCarlo.Statistic();
+        for (int i = 0; i < 1000; ++i) {
+            int value = random.nextInt(40);
+            all.add(value);
+            (i % 3 == 0 ? first : second).add(value);
+        }
+        first.merge(second);
+
+        assertEquals(all.count(), first.count());
+        assertEquals(all.mean(), first.mean(), 1e-9);
+        assertEquals(all.variance(), first.variance(), 1e-9);
+        assertEquals(all.min(), first.min());
+        assertEquals(all.max(), first.max());
+        for (int value = 0; value < 40; ++value)
+            assertEquals(all.frequency(value), first.frequency(value));
+    }
+
+    @Test
+    void deals_EstimatesKnownProbabilities() {
+        Map<String, MonteCarlo.Statistic> results = simulation(4).deals(40_000, 1);
+
+        // 12 cards of the standard deck have no set about 3.2% of the time, and 2.78 sets on average
+        assertEquals(40_000, results.get("sets per deal").count());
+        assertEquals(0.032, results.get("deal without a set").mean(), 0.006);
+        assertEquals(220 / 79.0, results.get("sets per deal").mean(), 0.05);
+    }
+
+    @Test
+    void games_AreReproducible() {
+        Map<String, MonteCarlo.Statistic> first = simulation(2).games(200, 7);
+        Map<String, MonteCarlo.Statistic> second = simulation(2).games(200, 7);
+        assertEquals(first.get("sets per game").mean(), second.get("sets per game").mean());
+        assertEquals(first.get("cards left per game").variance(), second.get("cards left per game").variance());
+    }
+}
@@ -0,0 +1,73 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SetCatalogTest {
+
+    @TempDir
+    Path directory;
+
+    private Config config(int featureCount) {
+        Properties properties = new Properties();
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", Integer.toString(featureCount));
+        properties.put("SetCatalogDirectory", directory.toString());
+        return new Config(properties);
+    }
+
+    @Test
+    void of_CachesTheCatalogOnDisk() {
+
+        Config config = config(4);
+        SetCatalog catalog = SetCatalog.of(config);
+        assertEquals(1080, catalog.setCount());
+        assertTrue(Files.exists(directory.resolve("set-catalog-4-3.bin")));
+        assertEquals(catalog, SetCatalog.of(config));
+    }
+
+    @Test
+    void of_IndexesTheSetsOfEveryCard() {
+
+        Config config = config(6);
+        SetCatalog catalog = SetCatalog.of(config);
+        assertEquals(729 * 728 / 6, catalog.setCount());
+
+        Util util = new UtilImpl(config);
+        for (int card = 0; card < config.deckSize; card += 37) {
+            assertEquals(728 / 2, catalog.degree(card));
+            for (int i = 0; i < catalog.degree(card); ++i) {
+                int set = catalog.setOf(card, i);
+                int[] cards = {catalog.card(set, 0), catalog.card(set, 1), catalog.card(set, 2)};
+                assertTrue(util.testSet(cards));
+                assertTrue(cards[0] == card || cards[1] == card || cards[2] == card);
+            }
+        }
+    }
+
+    @Test
+    void counter_CountsTheSetsInTheCollection() {
+
+        Config config = config(4);
+        SetCatalog.Counter counter = SetCatalog.of(config).counter();
+        List<Integer> cards = new ArrayList<>();
+        for (int card = 0; card < config.deckSize; card += 2) {
+            counter.add(card);
+            cards.add(card);
+        }
+        for (int card = 0; card < config.deckSize; card += 6) {
+            counter.remove(card);
+            cards.remove((Integer) card);
+        }
+        assertEquals(new UtilImpl(config).findSets(cards, Integer.MAX_VALUE).size(), counter.count());
+    }
+}
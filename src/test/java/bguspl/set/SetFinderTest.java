@@ -0,0 +1,169 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SetFinderTest {
+
+    private static Config config(int featureSize, int featureCount) {
+        Properties properties = new Properties();
+        properties.put("FeatureSize", Integer.toString(featureSize));
+        properties.put("FeatureCount", Integer.toString(featureCount));
+        return new Config(properties);
+    }
+
+    private static List<Integer> randomCards(Config config, int count, long seed) {
+        List<Integer> cards = new ArrayList<>();
+        for (int card = 0; card < config.deckSize; ++card)
+            cards.add(card);
+        Collections.shuffle(cards, new Random(seed));
+        return cards.subList(0, Math.min(count, cards.size()));
+    }
+
+    /**
+     * Finds all the sets by testing every combination of config.featureSize cards.
+     */
+    private static List<String> bruteForce(Config config, List<Integer> deck) {
+        Util util = new UtilImpl(config);
+        List<String> sets = new ArrayList<>();
+        int n = deck.size(), r = config.featureSize;
+        int[] combination = new int[r];
+        for (int i = 0; i < r; ++i)
+            combination[i] = i;
+        while (combination[r - 1] < n) {
+            int[] set = Arrays.stream(combination).map(deck::get).sorted().toArray();
+            if (util.testSet(set))
+                sets.add(Arrays.toString(set));
+            int t = r - 1;
+            while (t != 0 && combination[t] == n - r + t) --t;
+            combination[t]++;
+            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+        }
+        return sets;
+    }
+
+    private static List<String> find(Config config, List<Integer> deck, int count) {
+        List<String> sets = new ArrayList<>();
+        new SetFinder(config).findSets(deck, count).forEach(set -> sets.add(Arrays.toString(set)));
+        return sets;
+    }
+
+    private static void assertFindsAllSets(int featureSize, int featureCount, int cards) {
+        Config config = config(featureSize, featureCount);
+        for (long seed = 0; seed < 5; ++seed) {
+            List<Integer> deck = randomCards(config, cards, seed);
+            assertEquals(bruteForce(config, deck), find(config, deck, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    void findSets_SetsOf3() {
+        assertFindsAllSets(3, 4, 30);
+    }
+
+    @Test
+    void findSets_SetsOf4() {
+        assertFindsAllSets(4, 3, 40);
+    }
+
+    @Test
+    void findSets_SetsOf5() {
+        assertFindsAllSets(5, 2, 25);
+    }
+
+    @Test
+    void findSets_StopsAtCount() {
+        Config config = config(4, 3);
+        List<Integer> deck = randomCards(config, config.deckSize, 0);
+        assertEquals(bruteForce(config, deck).subList(0, 7), find(config, deck, 7));
+    }
+
+    private static List<String> find(Config config, List<Integer> deck, int count, boolean parallel) {
+        List<String> sets = new ArrayList<>();
+        new SetFinder(config).findSets(deck, count, parallel).forEach(set -> sets.add(Arrays.toString(set)));
+        return sets;
+    }
+
+    @Test
+    void findSets_ParallelMatchesSequential() {
+        Config config = config(3, 6);
+        List<Integer> deck = randomCards(config, config.deckSize, 0);
+        assertEquals(find(config, deck, Integer.MAX_VALUE, false), find(config, deck, Integer.MAX_VALUE, true));
+        assertEquals(find(config, deck, 1000, false), find(config, deck, 1000, true));
+
+        config = config(4, 4);
+        deck = randomCards(config, config.deckSize, 1);
+        assertEquals(find(config, deck, 50, false), find(config, deck, 50, true));
+    }
+
+    @Test
+    void forEachSet_MatchesFindSets() {
+        for (int featureSize = 3; featureSize <= 5; ++featureSize) {
+            Config config = config(featureSize, 3);
+            Util util = new UtilImpl(config);
+            List<Integer> deck = randomCards(config, 20, featureSize);
+            List<String> visited = new ArrayList<>();
+            util.forEachSet(deck, set -> visited.add(Arrays.toString(set)));
+            assertEquals(find(config, deck, Integer.MAX_VALUE), visited);
+            assertEquals(visited.size(), util.countSets(deck));
+            assertEquals(!visited.isEmpty(), util.hasSet(deck));
+            assertFalse(util.hasSet(deck.subList(0, featureSize - 1)));
+        }
+    }
+
+    @Test
+    void hasSet_LargeSetsMeetInTheMiddle() {
+        // the 256 cards of 5-card sets with 4 features that only use 4 of the 5 values have no set at all
+        Config config = config(5, 4);
+        List<Integer> deck = new ArrayList<>();
+        for (int card = 0; card < config.deckSize; ++card) {
+            boolean fourValues = true;
+            for (int c = card; c > 0; c /= 5)
+                if (c % 5 == 4) fourValues = false;
+            if (fourValues) deck.add(card);
+        }
+        Util util = new UtilImpl(config);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertFalse(util.hasSet(deck));
+            assertEquals(0, util.countSets(deck));
+        });
+
+        deck.add(4 + 4 * 5 + 4 * 25 + 4 * 125);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertTrue(util.hasSet(deck)));
+    }
+
+    @Test
+    void testSets_MatchesTestSet() {
+        for (int[] variant : new int[][]{{3, 4}, {4, 3}, {5, 2}}) {
+            Config config = config(variant[0], variant[1]);
+            Util util = new UtilImpl(config);
+            Random random = new Random(variant[1]);
+            int[] cards = new int[200 * config.featureSize];
+            for (int i = 0; i < cards.length; ++i)
+                cards[i] = random.nextInt(config.deckSize);
+            // make sure some of the candidates are sets
+            for (int c = 0; c < 200; c += 3) {
+                int[] set = new SetFinder(config).findSets(randomCards(config, config.deckSize, c), 1).get(0);
+                System.arraycopy(set, 0, cards, c * config.featureSize, set.length);
+            }
+
+            long[] results = util.testSets(cards);
+            for (int c = 0; c < 200; ++c) {
+                int[] candidate = Arrays.copyOfRange(cards, c * config.featureSize, (c + 1) * config.featureSize);
+                assertEquals(util.testSet(candidate), (results[c / 64] >>> (c % 64) & 1) == 1, Arrays.toString(candidate));
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BotSchedulerTest {
+
+    @Test
+    void schedule_RunsTasksInDeadlineOrder() throws InterruptedException {
+        BotScheduler scheduler = new BotScheduler(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        try {
+            for (int delay : new int[]{60, 20, 40})
+                scheduler.schedule(() -> {
+                    order.add(delay);
+                    done.countDown();
+                    return -1;
+                }, delay);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(20, 40, 60), order);
+            assertEquals(0, scheduler.size());
+        } finally {
+            scheduler.terminate();
+        }
+    }
+
+    @Test
+    void schedule_SharesTheThreadsFairly() throws InterruptedException {
+        BotScheduler scheduler = new BotScheduler(2);
+        AtomicInteger[] runs = new AtomicInteger[20];
+        try {
+            for (int i = 0; i < runs.length; ++i) {
+                AtomicInteger count = runs[i] = new AtomicInteger();
+                scheduler.schedule(() -> {
+                    count.incrementAndGet();
+                    return 5;
+                }, 0);
+            }
+            Thread.sleep(500);
+        } finally {
+            scheduler.terminate();
+        }
+        int min = Integer.MAX_VALUE, max = 0;
+        for (AtomicInteger count : runs) {
+            min = Math.min(min, count.get());
+            max = Math.max(max, count.get());
+        }
+        assertTrue(min > 10, "every task ran repeatedly (min " + min + ")");
+        assertTrue(min * 2 >= max, "no task was starved (min " + min + ", max " + max + ")");
+    }
+
+    @Test
+    void terminate_StopsRunningTasks() throws InterruptedException {
+        BotScheduler scheduler = new BotScheduler(2);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        scheduler.schedule(() -> {
+            runs.incrementAndGet();
+            return 1;
+        }, 0);
+        scheduler.schedule(() -> {
+            cancelledRuns.incrementAndGet();
+            return 1;
+        }, 50).cancel();
+        Thread.sleep(100);
+        assertTrue(runs.get() > 0);
+
+        scheduler.terminate();
+        Thread.sleep(50);
+        int stopped = runs.get();
+        Thread.sleep(100);
+        assertEquals(stopped, runs.get());
+        assertEquals(0, cancelledRuns.get());
+    }
+}
@@ -0,0 +1,106 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BotTest {
+
+    Env env;
+    Table table;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = new Properties();
+        properties.put("HumanPlayers", "0");
+        properties.put("ComputerPlayers", "1");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("ComputerReactionSeconds", "0.01");
+        properties.put("ComputerMissProbability", "0");
+        Config config = new Config(properties);
+        env = new Env(config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        table = new Table(env);
+
+        // the only set on the table is 0, 1, 2 (in slots 3, 5 and 7)
+        table.placeCard(4, 0);
+        table.placeCard(0, 3);
+        table.placeCard(1, 5);
+        table.placeCard(2, 7);
+        table.placeCard(12, 9);
+    }
+
+    @Test
+    void chooseSlots_FindsTheSetOnTheTable() {
+        for (long seed = 0; seed < 10; ++seed) {
+            int[] slots = new Bot(env, table, seed).chooseSlots();
+            assertNotNull(slots);
+            int[] sorted = slots.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(new int[]{3, 5, 7}, sorted);
+        }
+    }
+
+    @Test
+    void chooseSlots_NoSetOnTheTable() {
+        table.removeCard(7);
+        assertNull(new Bot(env, table, 42).chooseSlots());
+    }
+
+    @Test
+    void run_ComputerPlayerClaimsTheSet() throws InterruptedException {
+        // the 11 smallest cards whose features are all 0 or 1 hold no set, and card 2 only makes one with 0 and 1
+        List<Integer> deck = new ArrayList<>();
+        for (int card = 0; deck.size() < 11; ++card) {
+            boolean binary = true;
+            for (int c = card; c > 0; c /= 3)
+                binary &= c % 3 != 2;
+            if (binary) deck.add(card);
+        }
+        deck.add(2);
+        for (int card = 0; card < env.config.deckSize; ++card)
+            if (!deck.contains(card)) deck.add(card);
+
+        Table table = new Table(env);
+        Player[] players = new Player[1];
+        Dealer dealer = new Dealer(env, table, players, deck);
+        BotScheduler scheduler = new BotScheduler(1);
+        Player player = new Player(env, dealer, table, 0, false, scheduler);
+        players[0] = player;
+        dealer.start();
+        Thread thread = new Thread(player, "0");
+        thread.start();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (player.state() != Player.State.AWAITING_VERDICT && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(Player.State.AWAITING_VERDICT, player.state());
+
+            Table.Snapshot snapshot = table.snapshot(new Table.Snapshot(table));
+            List<Integer> slots = new ArrayList<>();
+            for (int slot = 0; slot < env.config.tableSize; ++slot)
+                if (snapshot.hasToken(player.id, slot))
+                    slots.add(slot);
+            List<Integer> expected = Arrays.asList(table.cardToSlot[0], table.cardToSlot[1], table.cardToSlot[2]);
+            expected.sort(null);
+            assertEquals(expected, slots);
+        } finally {
+            player.terminate();
+            thread.join(5000);
+            scheduler.terminate();
+        }
+    }
+}
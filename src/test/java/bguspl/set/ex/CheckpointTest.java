@@ -0,0 +1,213 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.GameHistory;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    Path file;
+    Properties properties;
+    Config config;
+    Table table;
+
+    @BeforeEach
+    void setUp() {
+        file = directory.resolve("checkpoint.bin");
+        properties = new Properties();
+        properties.put("HumanPlayers", "1");
+        properties.put("ComputerPlayers", "1");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("CheckpointSeconds", "1");
+        properties.put("CheckpointFile", file.toString());
+        properties.put("HistoryDirectory", directory.resolve("history").toString());
+        config = new Config(properties);
+        table = new Table(new Env(config, new TableTest.MockUserInterface(), new UtilImpl(config)));
+    }
+
+    private Checkpoint capture() {
+        table.placeCard(7, 0);
+        table.placeCard(12, 5);
+        table.placeToken(1, 5);
+        Checkpoint checkpoint = new Checkpoint(config, table);
+        checkpoint.deckLength = 3;
+        checkpoint.deck[0] = 40;
+        checkpoint.deck[1] = 2;
+        checkpoint.deck[2] = 33;
+        table.snapshot(checkpoint.table);
+        checkpoint.scores[0] = 4;
+        checkpoint.scores[1] = 2;
+        checkpoint.penalties[1] = 1;
+        checkpoint.frozen[1] = 2500;
+        checkpoint.states[0] = Player.State.IDLE;
+        checkpoint.states[1] = Player.State.FROZEN;
+        checkpoint.roundElapsed = 12345;
+        checkpoint.gameElapsed = 67890;
+        return checkpoint;
+    }
+
+    @Test
+    void read_RestoresTheCapturedGame() throws IOException {
+        capture().write(file);
+
+        Checkpoint.Saved saved = Checkpoint.read(config);
+        assertNotNull(saved);
+        assertEquals(Arrays.asList(40, 2, 33), saved.deck);
+        assertEquals(7, saved.slots[0]);
+        assertEquals(12, saved.slots[5]);
+        assertEquals(-1, saved.slots[1]);
+        assertTrue(saved.tokens[1][5]);
+        assertFalse(saved.tokens[0][5]);
+        assertArrayEquals(new int[]{4, 2}, saved.scores);
+        assertArrayEquals(new int[]{0, 1}, saved.penalties);
+        assertArrayEquals(new long[]{0, 2500}, saved.frozen);
+        assertArrayEquals(new Player.State[]{Player.State.IDLE, Player.State.FROZEN}, saved.states);
+        assertEquals(12345, saved.roundElapsed);
+        assertEquals(67890, saved.gameElapsed);
+    }
+
+    @Test
+    void read_IgnoresCorruptAndMismatchedCheckpoints() throws IOException {
+        capture().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[40] ^= 1;
+        Files.write(file, bytes);
+        assertNull(Checkpoint.read(config));
+
+        capture().write(file);
+        properties.put("ComputerPlayers", "2");
+        assertNull(Checkpoint.read(new Config(properties)));
+
+        properties.put("CheckpointSeconds", "0");
+        assertNull(Checkpoint.read(new Config(properties)));
+    }
+
+    @Test
+    void delete_RemovesTheCheckpoint() throws IOException {
+        Checkpoint checkpoint = capture();
+        checkpoint.write(file);
+        checkpoint.delete();
+        assertFalse(Files.exists(file));
+        assertNull(Checkpoint.read(config));
+    }
+
+    private static void seat(Player[] players, Env env, Dealer dealer, Table table) {
+        for (int i = 0; i < players.length; ++i)
+            players[i] = new Player(env, dealer, table, i, true);
+    }
+
+    private static void awaitFullTable(Table table, int tableSize) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (table.countCards() < tableSize && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(tableSize, table.countCards());
+    }
+
+    @Test
+    void terminate_SavesTheGameToResumeIt() throws IOException, InterruptedException {
+        Env env = new Env(config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        // a game that has not been dealt yet, in which player 1 already has 4 points and 2 penalties
+        Checkpoint started = new Checkpoint(config, table);
+        started.deckLength = config.deckSize;
+        for (int card = 0; card < config.deckSize; ++card)
+            started.deck[card] = card;
+        table.snapshot(started.table);
+        started.scores[1] = 4;
+        started.penalties[1] = 2;
+        Arrays.fill(started.states, Player.State.IDLE);
+        started.write(file);
+        Player[] players = new Player[config.players];
+        Dealer dealer = new Dealer(env, table, players, Checkpoint.read(config));
+        seat(players, env, dealer, table);
+
+        Thread game = new Thread(dealer, "dealer");
+        game.start();
+        awaitFullTable(table, config.tableSize);
+        Table.Snapshot before = table.snapshot(new Table.Snapshot(table));
+        dealer.terminate();
+        game.join(5000);
+        assertFalse(game.isAlive());
+
+        // the game was closed, not finished: it is kept, and resumes with the same cards and scores
+        Checkpoint.Saved saved = Checkpoint.read(config);
+        assertNotNull(saved);
+        assertEquals(config.deckSize - config.tableSize, saved.deck.size());
+        assertArrayEquals(new int[]{0, 4}, saved.scores);
+        assertArrayEquals(new int[]{0, 2}, saved.penalties);
+
+        Table resumedTable = new Table(env);
+        Player[] resumedPlayers = new Player[config.players];
+        Dealer resumed = new Dealer(env, resumedTable, resumedPlayers, saved);
+        seat(resumedPlayers, env, resumed, resumedTable);
+        Thread resumedGame = new Thread(resumed, "dealer");
+        resumedGame.start();
+        try {
+            awaitFullTable(resumedTable, config.tableSize);
+            Table.Snapshot after = resumedTable.snapshot(new Table.Snapshot(resumedTable));
+            for (int slot = 0; slot < config.tableSize; ++slot)
+                assertEquals(before.card(slot), after.card(slot));
+            assertEquals(4, resumedPlayers[1].getScore());
+            assertEquals(2, resumedPlayers[1].getPenalties());
+        } finally {
+            resumed.terminate();
+            resumedGame.join(5000);
+        }
+        assertTrue(Files.exists(file));
+
+        // neither closed game was recorded as a finished one
+        Thread.sleep(100);
+        assertEquals(0, GameHistory.of(config).games());
+    }
+
+    @Test
+    void run_DeletesTheCheckpointOfAFinishedGame() throws IOException, InterruptedException {
+        capture().write(file);
+
+        // the 16 cards whose features are all 0 or 1 hold no set, so the game ends at once
+        List<Integer> deck = new ArrayList<>();
+        for (int card = 0; card < config.deckSize; ++card) {
+            boolean binary = true;
+            for (int c = card; c > 0; c /= 3)
+                binary &= c % 3 != 2;
+            if (binary) deck.add(card);
+        }
+        Env env = new Env(config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        Player[] players = new Player[config.players];
+        Dealer dealer = new Dealer(env, table, players, deck);
+        seat(players, env, dealer, table);
+
+        Thread game = new Thread(dealer, "dealer");
+        game.start();
+        game.join(5000);
+        assertFalse(game.isAlive());
+        assertFalse(Files.exists(file));
+
+        GameHistory history = GameHistory.of(config);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (history.games() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(1, history.games());
+    }
+}
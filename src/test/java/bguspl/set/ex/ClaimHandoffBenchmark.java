@@ -0,0 +1,152 @@
+package bguspl.set.ex;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the handoff of claims from the player threads to the dealer thread and back, for every ClaimHandoff.
+ * <p>
+ * Every player thread claims, then waits until the dealer thread hands it a verdict (as a Player does); the dealer
+ * thread waits for claims and hands out verdicts (as Dealer.tokensValidation does, without checking the sets). The
+ * player method's time is the round trip of a claim, and the throughput is the number of claims handled. Claims
+ * whose verdict did not arrive in time are reported separately, as timeouts.
+ * <p>
+ * The main method runs the benchmark with 2 to 64 player threads against one dealer thread. To run a single
+ * configuration use JMH's own runner on the test classpath (after mvn test-compile):
+ * <pre>
+ *   java -cp target/test-classes:target/classes:&lt;test dependencies&gt; org.openjdk.jmh.Main ClaimHandoffBenchmark -tg 1,16
+ * </pre>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClaimHandoffBenchmark {
+
+    /**
+     * The maximum number of player threads.
+     */
+    private static final int MAX_PLAYERS = 256;
+
+    /**
+     * How long a player waits for its verdict, and the dealer for claims, before giving up (so neither blocks when the
+     * other stops at the end of an iteration).
+     */
+    private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @State(Scope.Group)
+    public static class Game {
+
+        @Param({"Monitor", "Parking", "Ring"})
+        public String handoff;
+
+        ClaimHandoff claims;
+        final Thread[] players = new Thread[MAX_PLAYERS];
+        final AtomicIntegerArray verdicts = new AtomicIntegerArray(MAX_PLAYERS);
+        final AtomicInteger ids = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            claims = ClaimHandoff.create(handoff, MAX_PLAYERS);
+        }
+    }
+
+    /**
+     * A player thread: its id and the number of claims it made (both kept across iterations), and the number of
+     * claims whose verdict it gave up on in the current iteration (reported by JMH as the timeouts counter).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PlayerThread {
+        int id = -1;
+        int claims;
+        public long timeouts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            timeouts = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(4)
+    public boolean player(Game game, PlayerThread player) {
+        if (player.id < 0) {
+            player.id = game.ids.getAndIncrement();
+            game.players[player.id] = Thread.currentThread();
+        }
+        // a claim that timed out is still queued: wait for its verdict first, so it is not taken for the next one's
+        if (!awaitVerdicts(game, player.id, player.claims)) {
+            ++player.timeouts;
+            return false;
+        }
+
+        game.claims.claim(player.id);
+        if (!awaitVerdicts(game, player.id, ++player.claims)) {
+            ++player.timeouts;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until a player got the given number of verdicts, for at most TIMEOUT_NANOS.
+     *
+     * @return - false iff the wait timed out.
+     */
+    private boolean awaitVerdicts(Game game, int player, int verdicts) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (game.verdicts.get(player) < verdicts) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public int dealer(Game game) {
+        game.claims.await(TIMEOUT_NANOS);
+        int handled = 0, player;
+        while ((player = game.claims.poll()) >= 0) {
+            game.verdicts.incrementAndGet(player);
+            LockSupport.unpark(game.players[player]);
+            ++handled;
+        }
+        return handled;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int players = 2; players <= 64; players *= 2)
+            new Runner(new OptionsBuilder()
+                    .include(ClaimHandoffBenchmark.class.getSimpleName())
+                    .threadGroups(1, players)
+                    .build())
+                    .run();
+    }
+}
@@ -0,0 +1,88 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaimHandoffTest {
+
+    static final String[] HANDOFFS = {"Monitor", "Parking", "Ring"};
+
+    @Test
+    void poll_TakesClaimsInOrder() {
+        for (String name : HANDOFFS)
+            takesClaimsInOrder(ClaimHandoff.create(name, 3));
+    }
+
+    private void takesClaimsInOrder(ClaimHandoff claims) {
+        for (int round = 0; round < 5; ++round) {
+            claims.claim(2);
+            claims.claim(0);
+            claims.claim(1);
+            assertEquals(3, claims.size());
+            assertEquals(2, claims.poll());
+            assertEquals(0, claims.poll());
+            assertEquals(1, claims.poll());
+            assertEquals(-1, claims.poll());
+        }
+    }
+
+    @Test
+    void await_WakesUpOnAClaim() throws InterruptedException {
+        for (String name : HANDOFFS) {
+            ClaimHandoff claims = ClaimHandoff.create(name, 2);
+            claims.await(TimeUnit.MILLISECONDS.toNanos(1));
+
+            Thread player = new Thread(() -> {
+                try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+                claims.claim(1);
+            });
+            player.start();
+            long start = System.nanoTime();
+            while (claims.size() == 0)
+                claims.await(TimeUnit.SECONDS.toNanos(10));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), name);
+            player.join();
+            assertEquals(1, claims.poll());
+        }
+    }
+
+    @Test
+    void claim_FromManyThreadsLosesNothing() throws InterruptedException {
+        for (String name : HANDOFFS)
+            losesNothing(ClaimHandoff.create(name, 8), 8);
+    }
+
+    private void losesNothing(ClaimHandoff claims, int players) throws InterruptedException {
+        int claimsPerPlayer = 10000;
+        Thread[] threads = new Thread[players];
+        for (int i = 0; i < players; ++i) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int c = 0; c < claimsPerPlayer; ++c)
+                    claims.claim(id);
+            });
+            threads[i].start();
+        }
+
+        int[] received = new int[players];
+        int total = 0;
+        while (total < players * claimsPerPlayer) {
+            int player = claims.poll();
+            if (player < 0) {
+                claims.await(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            ++received[player];
+            ++total;
+        }
+        for (Thread thread : threads)
+            thread.join();
+        for (int count : received)
+            assertEquals(claimsPerPlayer, count);
+        assertEquals(-1, claims.poll());
+    }
+}
@@ -0,0 +1,177 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UtilImpl;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DealerTest {
+
+    @TempDir
+    Path directory;
+
+    Dealer dealer;
+    Table table;
+    Player[] players;
+    Env env;
+
+    @BeforeEach
+    void setUp() {
+        createDealer(new Properties());
+    }
+
+    private void createDealer(Properties properties) {
+
+        properties.put("HumanPlayers", "2");
+        properties.put("ComputerPlayers", "0");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        Config config = new Config(properties);
+
+        env = new Env(config, new TableTest.MockUserInterface(), new UtilImpl(config));
+        table = new Table(env);
+        players = new Player[config.players];
+        dealer = new Dealer(env, table, players, setFreeDeck());
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, true);
+    }
+
+    @Test
+    void start_FillsTheTable() {
+
+        dealer.start();
+        assertEquals(table.slotToCard.length, table.countCards());
+        assertFalse(dealer.isPlacingCards());
+    }
+
+    /**
+     * @return - a deck that starts with the 16 cards whose features are all 0 or 1 (no 3 of them form a set).
+     */
+    private static List<Integer> setFreeDeck() {
+        List<Integer> deck = new ArrayList<>();
+        List<Integer> rest = new ArrayList<>();
+        for (int card = 0; card < 81; ++card) {
+            boolean binary = true;
+            for (int c = card; c > 0; c /= 3)
+                if (c % 3 == 2) binary = false;
+            (binary ? deck : rest).add(card);
+        }
+        deck.addAll(rest);
+        return deck;
+    }
+
+    private List<Integer> cardsOnTable() {
+        List<Integer> cards = new ArrayList<>();
+        for (Integer card : table.slotToCard)
+            if (card != null)
+                cards.add(card);
+        return cards;
+    }
+
+    @Test
+    void tick_ReshufflesWhenTheTurnTimesOut() throws InterruptedException {
+
+        Properties properties = new Properties();
+        properties.put("TurnTimeoutSeconds", "0.1");
+        createDealer(properties);
+        dealer.start();
+        List<Integer> before = cardsOnTable();
+        dealer.tick();
+        assertEquals(before, cardsOnTable());
+
+        Thread.sleep(150);
+        dealer.tick();
+        List<Integer> after = cardsOnTable();
+        assertEquals(table.slotToCard.length, after.size());
+        after.retainAll(before);
+        assertTrue(after.isEmpty());
+    }
+
+    @Test
+    void tick_MinimalReshuffle_RecordsTheSwappedCards() throws Exception {
+
+        // without a countdown a table without a set is reshuffled at once
+        Properties properties = new Properties();
+        properties.put("MinimalReshuffle", "true");
+        properties.put("TurnTimeoutSeconds", "0");
+        createDealer(properties);
+        dealer.start();
+        List<Integer> before = cardsOnTable();
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("bguspl.set.Reshuffle");
+            recording.start();
+            dealer.tick();
+            recording.stop();
+            Path file = directory.resolve("reshuffle.jfr");
+            recording.dump(file);
+            // the dump may hold other events recorded meanwhile (by other recordings)
+            events = RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals("bguspl.set.Reshuffle"))
+                    .collect(Collectors.toList());
+        }
+
+        assertEquals(1, events.size());
+        assertEquals(1, events.get(0).getInt("cards"));
+        List<Integer> after = cardsOnTable();
+        assertFalse(env.util.findSets(after, 1).isEmpty());
+        after.retainAll(before);
+        assertEquals(before.size() - 1, after.size());
+    }
+
+    @Test
+    void terminate_StopsTheDealerPromptly() throws InterruptedException {
+
+        Thread thread = new Thread(dealer, "dealer");
+        thread.start();
+        Thread.sleep(300);
+        dealer.terminate();
+        thread.join(2000);
+        assertFalse(thread.isAlive(), "the dealer is still running 2 s after terminate");
+    }
+
+    @Test
+    void tick_DoesNotAllocate() {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // the ticks of a dealt table are the steady state (let the JIT compile them first)
+        dealer.start();
+        for (int i = 0; i < 20_000; ++i)
+            dealer.tick();
+
+        // the cost of measuring itself
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10_000; ++i)
+            dealer.tick();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+        assertEquals(0, allocated, "bytes allocated by 10000 dealer ticks");
+    }
+}
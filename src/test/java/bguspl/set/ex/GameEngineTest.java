@@ -0,0 +1,255 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameEngineTest {
+
+    Properties properties;
+    Config config;
+    GameEngine engine;
+    GameState state;
+    GameEngine.Event event = new GameEngine.Event(GameEngine.Event.Kind.START, 0, 0, 0);
+    TableTest.MockUserInterface ui = new TableTest.MockUserInterface();
+
+    @BeforeEach
+    void setUp() {
+        properties = new Properties();
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TurnTimeoutSeconds", "60");
+        properties.put("PointFreezeSeconds", "1");
+        properties.put("PenaltyFreezeSeconds", "3");
+        configure();
+        state = newGame(IntStream.range(0, config.deckSize).toArray());
+    }
+
+    private void configure() {
+        config = new Config(properties);
+        engine = new GameEngine(config, new UtilImpl(config));
+    }
+
+    private GameState newGame(int[] deck) {
+        GameState state = new GameState(config, 2, deck, 1);
+        engine.step(state, event.set(GameEngine.Event.Kind.START, 0, 0, 0), ui);
+        return state;
+    }
+
+    /**
+     * @return - a deck that starts with the 16 cards whose features are all 0 or 1 (no 3 of them form a set).
+     */
+    private int[] setFreeDeck() {
+        List<Integer> deck = new ArrayList<>();
+        List<Integer> rest = new ArrayList<>();
+        for (int card = 0; card < config.deckSize; ++card) {
+            boolean binary = true;
+            for (int c = card; c > 0; c /= 3)
+                if (c % 3 == 2) binary = false;
+            (binary ? deck : rest).add(card);
+        }
+        deck.addAll(rest);
+        return deck.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int slotOf(int card) {
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            if (state.card(slot) == card) return slot;
+        return -1;
+    }
+
+    private List<Integer> cardsOnTable() {
+        List<Integer> cards = new ArrayList<>();
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            if (state.card(slot) >= 0)
+                cards.add(state.card(slot));
+        return cards;
+    }
+
+    private void press(int player, int card, long time) {
+        engine.step(state, event.set(GameEngine.Event.Kind.KEY, player, slotOf(card), time), ui);
+    }
+
+    private void judge(int player, long time) {
+        engine.step(state, event.set(GameEngine.Event.Kind.CLAIM, player, -1, time), ui);
+    }
+
+    @Test
+    void start_DealsTheTopOfTheDeck() {
+        for (int card = 0; card < config.tableSize; ++card)
+            assertTrue(slotOf(card) >= 0);
+        assertEquals(config.deckSize - config.tableSize, state.deckSize());
+        assertEquals(config.tableSize, state.deckCard(0));
+    }
+
+    @Test
+    void claim_LegalSet_ScoresAndRefills() {
+        // cards 0, 1 and 2 differ only in their last feature
+        int[] slots = {slotOf(0), slotOf(1), slotOf(2)};
+        press(0, 0, 10);
+        press(0, 1, 10);
+        press(1, 1, 10);
+        press(0, 2, 10);
+        assertTrue(state.claimed(0));
+        assertEquals(0, state.score(0));
+
+        judge(0, 10);
+        assertFalse(state.claimed(0));
+        assertEquals(1, state.score(0));
+        assertEquals(10 + config.pointFreezeMillis, state.frozenUntil(0));
+        List<Integer> dealt = new ArrayList<>();
+        for (int slot : slots)
+            dealt.add(state.card(slot));
+        dealt.sort(null);
+        assertEquals(Arrays.asList(12, 13, 14), dealt);
+        assertFalse(state.hasToken(1, slots[1]));
+        assertEquals(0, state.tokens(1));
+
+        // frozen players are ignored
+        press(0, 5, 20);
+        assertFalse(state.hasToken(0, slotOf(5)));
+    }
+
+    @Test
+    void claim_IllegalSet_PenalizesUntilATokenChanges() {
+        press(0, 0, 0);
+        press(0, 1, 0);
+        press(0, 3, 0);
+        judge(0, 0);
+        assertEquals(0, state.score(0));
+        assertEquals(1, state.penalties(0));
+        assertEquals(config.penaltyFreezeMillis, state.frozenUntil(0));
+
+        // after the freeze the player keeps its tokens, and the same claim needs a change first
+        long later = config.penaltyFreezeMillis;
+        press(0, 4, later);
+        assertFalse(state.hasToken(0, slotOf(4)));
+        assertFalse(state.claimed(0));
+        press(0, 3, later);
+        press(0, 2, later);
+        judge(0, later);
+        assertEquals(1, state.score(0));
+    }
+
+    @Test
+    void claim_TakenTokens_CancelTheClaim() {
+        // both 0, 1, 2 and 0, 4, 8 are sets, and the first one claimed takes card 0
+        press(1, 0, 0);
+        press(1, 1, 0);
+        press(1, 2, 0);
+        press(0, 0, 0);
+        press(0, 4, 0);
+        press(0, 8, 0);
+        judge(1, 0);
+        judge(0, 0);
+
+        assertEquals(1, state.score(1));
+        assertEquals(0, state.score(0));
+        assertEquals(0, state.penalties(0));
+        assertEquals(0, state.frozenUntil(0));
+        assertEquals(2, state.tokens(0));
+        assertFalse(state.claimed(0));
+    }
+
+    @Test
+    void tick_TimeoutReshufflesTheTable() {
+        press(1, 4, 0);
+        assertFalse(engine.reshuffleDue(state, config.turnTimeoutMillis - 1));
+        assertTrue(engine.reshuffleDue(state, config.turnTimeoutMillis));
+        engine.step(state, event.set(GameEngine.Event.Kind.TICK, 0, 0, config.turnTimeoutMillis), ui);
+        for (int card = config.tableSize; card < 2 * config.tableSize; ++card)
+            assertTrue(slotOf(card) >= 0);
+        assertEquals(0, state.tokens(1));
+        assertEquals(config.tableSize, state.reshuffled());
+        assertEquals(config.deckSize - config.tableSize, state.deckSize());
+        assertEquals(2 * config.turnTimeoutMillis, state.deadline());
+    }
+
+    @Test
+    void deal_GuaranteedSetDealing_TableAlwaysHasASet() {
+        properties.put("GuaranteedSetDealing", "true");
+        configure();
+        state = newGame(setFreeDeck());
+        UtilImpl util = new UtilImpl(config);
+        long time = 0;
+        for (int round = 0; round < 20; ++round) {
+            List<int[]> sets = util.findSets(cardsOnTable(), 1);
+            assertFalse(sets.isEmpty());
+
+            // take away a set and let the dealer refill the table
+            for (int card : sets.get(0))
+                press(0, card, time);
+            judge(0, time);
+            assertEquals(round + 1, state.score(0));
+            time += config.pointFreezeMillis;
+        }
+    }
+
+    @Test
+    void tick_MinimalReshuffle_SwapsOnlyWhatIsNeeded() {
+        properties.put("MinimalReshuffle", "true");
+        configure();
+        state = newGame(setFreeDeck());
+        UtilImpl util = new UtilImpl(config);
+        List<Integer> before = cardsOnTable();
+        assertTrue(util.findSets(before, 1).isEmpty());
+
+        engine.step(state, event.set(GameEngine.Event.Kind.TICK, 0, 0, config.turnTimeoutMillis), ui);
+        List<Integer> after = cardsOnTable();
+        assertFalse(util.findSets(after, 1).isEmpty());
+
+        // a single card completes a set with two of the cards on the table
+        after.retainAll(before);
+        assertEquals(before.size() - 1, after.size());
+        assertEquals(1, state.reshuffled());
+    }
+
+    /**
+     * Plays a whole game with random key presses.
+     */
+    private int[] playRandomGame(long seed) {
+        Random random = new Random(seed);
+        int[] deck = IntStream.range(0, config.deckSize).toArray();
+        for (int i = deck.length - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1), card = deck[i];
+            deck[i] = deck[j];
+            deck[j] = card;
+        }
+        state = newGame(deck);
+        long time = 0;
+        while (!state.finished()) {
+            time += 10;
+            int player = random.nextInt(2);
+            engine.step(state, event.set(GameEngine.Event.Kind.KEY, player, random.nextInt(config.tableSize), time),
+                    ui);
+            if (state.claimed(player)) judge(player, time);
+            engine.step(state, event.set(GameEngine.Event.Kind.TICK, 0, 0, time), ui);
+        }
+        return new int[]{state.score(0), state.score(1)};
+    }
+
+    @Test
+    void step_GamesAreDeterministicAndEnd() {
+        int[] scores = playRandomGame(3);
+        assertTrue(scores[0] + scores[1] > 0);
+        assertArrayEquals(scores, playRandomGame(3));
+    }
+
+    @Test
+    void winners_AllPlayersWithTheTopScore() {
+        assertArrayEquals(new int[]{1, 3}, GameEngine.winners(new int[]{2, 5, 1, 5}));
+    }
+}
@@ -4,6 +4,7 @@ import bguspl.set.Config;
 import bguspl.set.Env;
 import bguspl.set.UserInterface;
 import bguspl.set.Util;
+import bguspl.set.UtilImpl;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,10 +12,17 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -30,6 +38,12 @@ class PlayerTest {
     @Mock
     private Dealer dealer;
 
+    /**
+     * The table and the dealer of a game with real players (see playingPlayers).
+     */
+    private Table realTable;
+    private Dealer game;
+
     void assertInvariants() {
         assertTrue(player.id >= 0);
         assertTrue(player.getScore() >= 0);
@@ -49,21 +63,213 @@ class PlayerTest {
     }
 
     @Test
-    void point() {
+    void getScore() {
+
+        // the score is part of the game, which the dealer keeps
+        when(dealer.score(player.id)).thenReturn(3);
+
+        // check that the player reports the score of the game
+        assertEquals(3, player.getScore());
+    }
+
+    /**
+     * The players of a game on a real table (freezes of 200 ms for a point and 300 ms for a penalty), whose dealer is
+     * driven by the test (start and tick) and whose threads are started by the test. The deck is dealt in order, so the
+     * table holds cards 0 to 11 (in random slots).
+     */
+    private Player[] playingPlayers(int count) {
+        Properties properties = new Properties();
+        properties.put("HumanPlayers", Integer.toString(count));
+        properties.put("ComputerPlayers", "0");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        properties.put("PointFreezeSeconds", "0.2");
+        properties.put("PenaltyFreezeSeconds", "0.3");
+        Config config = new Config(properties);
+        Env env = new Env(config, mock(UserInterface.class), new UtilImpl(config));
+        realTable = new Table(env);
+        Player[] players = new Player[count];
+        List<Integer> deck = IntStream.range(0, config.deckSize).boxed().collect(Collectors.toList());
+        game = new Dealer(env, realTable, players, deck);
+        for (int id = 0; id < count; ++id)
+            players[id] = new Player(env, game, realTable, id, true);
+        game.start();
+        return players;
+    }
+
+    /**
+     * Presses the keys of the slots the cards are in.
+     */
+    private void press(Player p, int... cards) {
+        for (int card : cards)
+            p.keyPressed(realTable.cardToSlot[card]);
+    }
+
+    private boolean hasToken(Player p, int card) {
+        Integer slot = realTable.cardToSlot[card];
+        return slot != null && realTable.snapshot(new Table.Snapshot(realTable)).hasToken(p.id, slot);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(1);
+        }
+    }
+
+    private Thread start(Player p) {
+        Thread thread = new Thread(p, "player " + p.id);
+        thread.start();
+        return thread;
+    }
+
+    private void stop(Player p, Thread thread) throws InterruptedException {
+        p.terminate();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    void keyPressed_ClaimsOnceAllTokensArePlaced() throws InterruptedException {
+        player = playingPlayers(1)[0];
+        Thread thread = start(player);
+        try {
+            press(player, 0);
+            waitFor(() -> player.state() == Player.State.SELECTING);
+            press(player, 1, 2);
+            waitFor(() -> player.state() == Player.State.AWAITING_VERDICT);
 
-        // force table.countCards to return 3
-        when(table.countCards()).thenReturn(3); // this part is just for demonstration
+            // keys are ignored while awaiting the verdict
+            press(player, 0, 3);
+            Thread.sleep(100);
+            assertEquals(3, game.tokens(player.id));
+            assertFalse(hasToken(player, 3));
+            assertEquals(Player.State.AWAITING_VERDICT, player.state());
 
-        // calculate the expected score for later
-        int expectedScore = player.getScore() + 1;
+            // the claim was queued for the dealer
+            game.tick();
+            assertEquals(1, player.getScore());
+        } finally {
+            stop(player, thread);
+        }
+    }
+
+    @Test
+    void claim_TokensTaken_ReleasesThePlayerWithoutAFreeze() throws InterruptedException {
+        Player[] players = playingPlayers(2);
+        Thread[] threads = {start(players[0]), start(players[1])};
+        try {
+            // both 0, 1, 2 and 0, 4, 8 are sets, and the first one claimed takes card 0
+            press(players[1], 0, 1, 2);
+            waitFor(() -> players[1].state() == Player.State.AWAITING_VERDICT);
+            press(players[0], 0, 4, 8);
+            waitFor(() -> players[0].state() == Player.State.AWAITING_VERDICT);
+
+            game.tick();
+            assertEquals(1, players[1].getScore());
+            waitFor(() -> players[0].state() == Player.State.SELECTING);
+            assertTrue(players[0].frozenUntil() <= System.currentTimeMillis());
+            assertEquals(0, players[0].getScore());
+            assertEquals(0, players[0].getPenalties());
+
+            // the player can complete its tokens and claim again
+            press(players[0], 3);
+            waitFor(() -> players[0].state() == Player.State.AWAITING_VERDICT);
+        } finally {
+            stop(players[0], threads[0]);
+            stop(players[1], threads[1]);
+        }
+    }
+
+    @Test
+    void point_FreezesForTheConfiguredTime() throws InterruptedException {
+        player = playingPlayers(1)[0];
+        Thread thread = start(player);
+        try {
+            press(player, 0, 1, 2);
+            waitFor(() -> player.state() == Player.State.AWAITING_VERDICT);
+
+            long start = System.currentTimeMillis();
+            game.tick();
+            assertEquals(1, player.getScore());
+            assertTrue(player.frozenUntil() >= start + 200 && player.frozenUntil() <= System.currentTimeMillis() + 200);
+            waitFor(() -> player.state() == Player.State.FROZEN);
+
+            // keys are ignored while frozen
+            press(player, 5);
+            Thread.sleep(50);
+            assertFalse(hasToken(player, 5));
 
-        // call the method we are testing
-        player.point();
+            // the tokens were taken with the set
+            waitFor(() -> player.state() == Player.State.IDLE);
+            assertTrue(System.currentTimeMillis() >= start + 200);
+        } finally {
+            stop(player, thread);
+        }
+    }
+
+    @Test
+    void penalty_FreezesAndForbidsClaimingTheSameTokens() throws InterruptedException {
+        player = playingPlayers(1)[0];
+        Thread thread = start(player);
+        try {
+            press(player, 0, 1, 3);
+            waitFor(() -> player.state() == Player.State.AWAITING_VERDICT);
+
+            long start = System.currentTimeMillis();
+            long penalized = System.nanoTime();
+            game.tick();
+            assertEquals(0, player.getScore());
+            assertEquals(1, player.getPenalties());
+            waitFor(() -> player.state() == Player.State.FROZEN);
+            waitFor(() -> player.state() == Player.State.SELECTING);
+            assertTrue(System.currentTimeMillis() >= start + 300);
+            // the reaction time of the next claim starts when the freeze ends, not at the first token
+            assertTrue(player.reactionStartNanos() >= penalized + TimeUnit.MILLISECONDS.toNanos(290));
+
+            // the penalized tokens stay, and a fourth token is not placed
+            press(player, 4);
+            Thread.sleep(50);
+            assertFalse(hasToken(player, 4));
+            assertEquals(Player.State.SELECTING, player.state());
+
+            // pressing a token's key removes it; placing it back is a new claim
+            press(player, 3);
+            waitFor(() -> game.tokens(player.id) == 2);
+            press(player, 3);
+            waitFor(() -> player.state() == Player.State.AWAITING_VERDICT);
+            game.tick();
+            assertEquals(2, player.getPenalties());
+        } finally {
+            stop(player, thread);
+        }
+    }
+
+    @Test
+    void tokensTaken_LetsAPenalizedPlayerClaimAgain() throws InterruptedException {
+        Player[] players = playingPlayers(2);
+        Thread[] threads = {start(players[0]), start(players[1])};
+        try {
+            press(players[0], 0, 1, 3);
+            waitFor(() -> players[0].state() == Player.State.AWAITING_VERDICT);
+            game.tick();
+            waitFor(() -> players[0].state() == Player.State.FROZEN);
 
-        // check that the score was increased correctly
-        assertEquals(expectedScore, player.getScore());
+            // another player's set takes card 0: the claim changed without a key press
+            press(players[1], 0, 4, 8);
+            waitFor(() -> players[1].state() == Player.State.AWAITING_VERDICT);
+            game.tick();
+            assertEquals(1, players[1].getScore());
+            assertEquals(2, game.tokens(0));
 
-        // check that ui.setScore was called with the player's id and the correct score
-        verify(ui).setScore(eq(player.id), eq(expectedScore));
+            waitFor(() -> players[0].state() == Player.State.SELECTING);
+            press(players[0], 5);
+            waitFor(() -> players[0].state() == Player.State.AWAITING_VERDICT);
+        } finally {
+            stop(players[0], threads[0]);
+            stop(players[1], threads[1]);
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,19 +2,29 @@ package bguspl.set.ex;
 
 import bguspl.set.Config;
 import bguspl.set.Env;
+import bguspl.set.Log;
 import bguspl.set.UserInterface;
 import bguspl.set.Util;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TableTest {
 
     Table table;
+    private Config config;
     private Integer[] slotToCard;
     private Integer[] cardToSlot;
 
@@ -29,7 +39,7 @@ class TableTest {
         properties.put("TableDelaySeconds", "0");
         properties.put("PlayerKeys1", "81,87,69,82");
         properties.put("PlayerKeys2", "85,73,79,80");
-        Config config = new Config(properties);
+        config = new Config(properties);
         slotToCard = new Integer[config.tableSize];
         cardToSlot = new Integer[config.deckSize];
 
@@ -37,6 +47,11 @@ class TableTest {
         table = new Table(env, slotToCard, cardToSlot);
     }
 
+    @AfterEach
+    void tearDown() {
+        Log.setOutput(System.out);
+    }
+
     private int fillSomeSlots() {
         slotToCard[1] = 3;
         slotToCard[2] = 5;
@@ -93,6 +108,125 @@ class TableTest {
         placeSomeCardsAndAssert();
     }
 
+    @Test
+    void snapshot_SeesCardsAndTokens() {
+
+        Table.Snapshot snapshot = table.snapshot(new Table.Snapshot(table));
+        long version = snapshot.version();
+        assertEquals(-1, snapshot.card(2));
+
+        table.placeCard(8, 2);
+        table.placeToken(1, 2);
+        table.snapshot(snapshot);
+        assertEquals(8, snapshot.card(2));
+        assertTrue(snapshot.hasToken(1, 2));
+        assertEquals(version + 2, snapshot.version());
+
+        // removing a card removes the tokens on it
+        table.removeCard(2);
+        table.snapshot(snapshot);
+        assertEquals(-1, snapshot.card(2));
+        assertFalse(snapshot.hasToken(1, 2));
+        assertFalse(table.removeToken(1, 2));
+    }
+
+    @Test
+    void hints_AreCachedPerTableConfiguration() throws InterruptedException {
+
+        HintUtil util = new HintUtil();
+        table = new Table(new Env(config, new MockUserInterface(), util));
+        ByteArrayOutputStream output = capture();
+        table.placeCard(0, 0);
+        table.placeCard(1, 1);
+        table.placeCard(2, 2);
+
+        table.hints();
+        table.placeToken(0, 1); // tokens do not change the hints
+        table.hints();
+        awaitHints(output, 2);
+        assertEquals(1, util.searches.get());
+        assertTrue(output.toString().contains("slots: [0, 1, 2] features: [[0], [1], [2]]"));
+
+        table.removeCard(0);
+        table.placeCard(9, 0);
+        table.hints();
+        awaitHints(output, 3);
+        assertEquals(2, util.searches.get());
+        assertTrue(output.toString().contains("slots: [0, 1, 2] features: [[1], [2], [9]]"));
+    }
+
+    @Test
+    void hints_ForAChangedTableAreDropped() throws InterruptedException {
+
+        HintUtil util = new HintUtil();
+        util.release = new CountDownLatch(1);
+        table = new Table(new Env(config, new MockUserInterface(), util));
+        ByteArrayOutputStream output = capture();
+        table.placeCard(0, 0);
+        table.placeCard(1, 1);
+        table.placeCard(2, 2);
+
+        table.hints();
+        assertTrue(util.searching.await(5, TimeUnit.SECONDS));
+        table.removeCard(0);
+        table.placeCard(9, 0);
+        util.release.countDown();
+
+        // the hints are computed in order, so once the hints of the new table are printed the old ones were dropped
+        table.hints();
+        awaitHints(output, 1);
+        Thread.sleep(50);
+        Log.flush();
+        assertEquals(1, hintCount(output));
+        assertTrue(output.toString().contains("features: [[1], [2], [9]]"));
+    }
+
+    private static ByteArrayOutputStream capture() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Log.setOutput(new PrintStream(output, true));
+        return output;
+    }
+
+    private static void awaitHints(ByteArrayOutputStream output, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hintCount(output) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            Log.flush();
+        }
+        assertEquals(count, hintCount(output));
+    }
+
+    private static int hintCount(ByteArrayOutputStream output) {
+        return output.toString().split("Set found", -1).length - 1;
+    }
+
+    /**
+     * Reports the first three cards as a set and counts the searches (optionally holding the first one).
+     */
+    static class HintUtil extends MockUtil {
+        final AtomicInteger searches = new AtomicInteger();
+        final CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release;
+
+        @Override
+        public int[][] cardsToFeatures(int[] cards) {
+            int[][] features = new int[cards.length][];
+            for (int i = 0; i < cards.length; ++i)
+                features[i] = new int[]{cards[i]};
+            return features;
+        }
+
+        @Override
+        public void forEachSet(List<Integer> deck, SetVisitor visitor) {
+            searches.incrementAndGet();
+            searching.countDown();
+            try {
+                if (release != null) release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {}
+            visitor.visit(new int[]{deck.get(0), deck.get(1), deck.get(2)});
+        }
+    }
+
     static class MockUserInterface implements UserInterface {
         @Override
         public void placeCard(int card, int slot) {}
@@ -134,9 +268,28 @@ class TableTest {
             return false;
         }
 
+        @Override
+        public long[] testSets(int[] cards) {
+            return new long[0];
+        }
+
         @Override
         public List<int[]> findSets(List<Integer> deck, int count) {
             return null;
         }
+
+        @Override
+        public boolean hasSet(List<Integer> deck) {
+            return false;
+        }
+
+        @Override
+        public int countSets(List<Integer> deck) {
+            return 0;
+        }
+
+        @Override
+        public void forEachSet(List<Integer> deck, SetVisitor visitor) {
+        }
     }
 }
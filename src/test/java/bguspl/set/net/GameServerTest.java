@@ -0,0 +1,251 @@
+package bguspl.set.net;
+
+import bguspl.set.UserInterface;
+import bguspl.set.ex.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class GameServerTest {
+
+    GameServer server;
+    Player[] players;
+    UserInterface feed;
+    SocketChannel client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // players 0 and 1 are remote players, player 2 is a computer player
+        players = new Player[]{mock(Player.class), mock(Player.class), mock(Player.class)};
+        server = new GameServer(0);
+        feed = server.addTable(7, players, 2, 4);
+        server.start();
+        client = connect();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.terminate();
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+    }
+
+    private static void send(SocketChannel client, ByteBuffer frames) throws IOException {
+        frames.flip();
+        while (frames.hasRemaining())
+            client.write(frames);
+    }
+
+    private static ByteBuffer receive(SocketChannel client, int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        while (frame.hasRemaining())
+            if (client.read(frame) < 0) throw new IOException("closed");
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Joins the table and skips the snapshot of the (empty) table.
+     */
+    private static void join(SocketChannel client, int player) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(16);
+        Protocol.join(out, 7, player);
+        send(client, out);
+
+        ByteBuffer joined = receive(client, 3);
+        assertEquals(Protocol.JOINED, joined.get());
+        assertEquals(player, joined.getShort());
+        // remove tokens, 4 empty slots and 3 scores
+        receive(client, 3 + 4 * 3 + 3 * 7);
+    }
+
+    @Test
+    void join_KeysReachThePlayerAndChangesReachTheClient() throws IOException {
+        join(client, 1);
+        ByteBuffer out = ByteBuffer.allocate(16);
+        Protocol.key(out, 2);
+        send(client, out);
+        verify(players[1], timeout(2000)).keyPressed(2);
+
+        feed.placeCard(42, 3);
+        feed.announceWinner(new int[]{0, 1});
+        ByteBuffer frames = receive(client, 7 + 7);
+        assertEquals(7, Protocol.frameLength(frames));
+        assertEquals(Protocol.PLACE_CARD, frames.get());
+        assertEquals(3, frames.getShort());
+        assertEquals(42, frames.getInt());
+        assertEquals(7, Protocol.frameLength(frames));
+        assertEquals(Protocol.WINNERS, frames.get());
+        assertEquals(2, frames.getShort());
+        assertEquals(0, frames.getShort());
+        assertEquals(1, frames.getShort());
+    }
+
+    @Test
+    void join_UnknownTableIsRejected() throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(16);
+        Protocol.join(out, 3, 0);
+        send(client, out);
+        assertEquals(Protocol.REJECTED, receive(client, 1).get());
+    }
+
+    @Test
+    void join_TakenOrComputerPlayerIsRejected() throws IOException {
+        join(client, 0);
+        try (SocketChannel other = connect()) {
+            ByteBuffer out = ByteBuffer.allocate(16);
+            Protocol.join(out, 7, 0);
+            send(other, out);
+            assertEquals(Protocol.REJECTED, receive(other, 1).get());
+
+            out.clear();
+            Protocol.join(out, 7, 2);
+            send(other, out);
+            assertEquals(Protocol.REJECTED, receive(other, 1).get());
+
+            // a free remote player can still be joined
+            join(other, 1);
+        }
+
+        // the player is free again once its connection is closed
+        client.close();
+        try (SocketChannel other = connect()) {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (true) {
+                ByteBuffer out = ByteBuffer.allocate(16);
+                Protocol.join(out, 7, 0);
+                send(other, out);
+                if (receive(other, 1).get() == Protocol.JOINED) break;
+                assertTrue(System.currentTimeMillis() < deadline);
+            }
+        }
+    }
+
+    @Test
+    void key_OutOfRangeSlotClosesTheConnection() throws IOException {
+        join(client, 0);
+        ByteBuffer out = ByteBuffer.allocate(16);
+        Protocol.key(out, 4);
+        send(client, out);
+        assertEquals(-1, client.read(ByteBuffer.allocate(16)));
+        verify(players[0], never()).keyPressed(anyInt());
+
+        // the server keeps serving the other connections
+        try (SocketChannel other = connect()) {
+            join(other, 1);
+            out.clear();
+            Protocol.key(out, 3);
+            send(other, out);
+            verify(players[1], timeout(2000)).keyPressed(3);
+        }
+    }
+
+    @Test
+    void spectate_AllSpectatorsGetTheSameFrames() throws IOException {
+        join(client, -1);
+        try (SocketChannel other = connect()) {
+            join(other, -1);
+            feed.placeCard(5, 0);
+            feed.setScore(1, 3);
+            assertEquals(receive(client, 14), receive(other, 14));
+        }
+    }
+
+    @Test
+    void spectate_LargeTableGetsItsWholeSnapshot() throws IOException {
+        // 2048 slots with a card and a token of every player: a snapshot of about 45 KB
+        int slots = 2048;
+        UserInterface large = server.addTable(8, players, 2, slots);
+        for (int slot = 0; slot < slots; ++slot) {
+            large.placeCard(slot, slot);
+            for (int player = 0; player < players.length; ++player)
+                large.placeToken(player, slot);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(16);
+        Protocol.join(out, 8, -1);
+        send(client, out);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertEquals(Protocol.JOINED, receive(client, 3).get());
+            ByteBuffer snapshot = receive(client, 3 + slots * 7 + players.length * (7 + slots * 5));
+            int cards = 0, tokens = 0;
+            while (snapshot.hasRemaining()) {
+                int length = Protocol.frameLength(snapshot);
+                byte type = snapshot.get(snapshot.position());
+                if (type == Protocol.PLACE_CARD) ++cards;
+                if (type == Protocol.PLACE_TOKEN) ++tokens;
+                snapshot.position(snapshot.position() + length);
+            }
+            assertEquals(slots, cards);
+            assertEquals(slots * players.length, tokens);
+        });
+    }
+
+    @Test
+    void spectate_SlowSpectatorSkipsToASnapshot() throws IOException {
+        // small socket buffers on both sides, so a client that does not read falls behind the log after a few changes
+        GameServer slowServer = new GameServer(0, 4096);
+        UserInterface slowFeed = slowServer.addTable(7, players, 2, 4);
+        slowServer.start();
+        try (SocketChannel slow = SocketChannel.open()) {
+            slow.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+            slow.connect(new InetSocketAddress("localhost", slowServer.port()));
+            join(slow, -1);
+
+            // more changes than the log keeps for a client that does not read, plus what the sockets buffer
+            int changes = 100_000;
+            for (int i = 0; i < changes; ++i)
+                slowFeed.placeCard(i, i % 4);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+                // read until the last change arrives: the client must have received fewer bytes than all the changes
+                ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+                long received = 0;
+                int[] cards = {-1, -1, -1, -1};
+                boolean skipped = false;
+                while (cards[(changes - 1) % 4] != changes - 1) {
+                    if (slow.read(in) < 0) throw new IOException("closed");
+                    in.flip();
+                    while (Protocol.hasFrame(in)) {
+                        int length = Protocol.frameLength(in);
+                        received += length;
+                        byte type = in.get();
+                        if (type == Protocol.PLACE_CARD) {
+                            int slot = in.getShort();
+                            cards[slot] = in.getInt();
+                        }
+                        else {
+                            skipped |= type == Protocol.REMOVE_TOKENS;
+                            in.position(in.position() + length - 1);
+                        }
+                    }
+                    in.compact();
+                }
+                assertTrue(skipped);
+                assertTrue(received < 7L * changes);
+                assertEquals(changes - 4, cards[0]);
+            });
+        } finally {
+            slowServer.terminate();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package bguspl.set.net;
+
+import bguspl.set.CompositeUserInterface;
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.LatencyHistogram;
+import bguspl.set.UserInterface;
+import bguspl.set.UtilImpl;
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class LoadGeneratorTest {
+
+    @Test
+    void run_PressesKeysOfARealGameAndMeasuresLatencies() throws Exception {
+        Properties properties = new Properties();
+        properties.put("HumanPlayers", "4");
+        properties.put("ComputerPlayers", "0");
+        properties.put("FeatureSize", "3");
+        properties.put("FeatureCount", "4");
+        properties.put("TableDelaySeconds", "0");
+        Config config = new Config(properties);
+
+        GameServer server = new GameServer(0);
+        Player[] players = new Player[config.players];
+        UserInterface feed = server.addTable(0, players, config.humanPlayers, config.tableSize);
+        Env env = new Env(config, new CompositeUserInterface(mock(UserInterface.class), feed), new UtilImpl(config));
+        Table table = new Table(env);
+        Dealer dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, true);
+        server.start();
+        Thread game = new Thread(dealer, "dealer");
+        game.start();
+
+        try {
+            LoadGenerator generator = new LoadGenerator(new InetSocketAddress("localhost", server.port()),
+                    config.players, 1, config.players, 2, 50, 0.8, 42, config);
+            LoadGenerator.Report report = generator.run(1500);
+
+            assertEquals(0, report.failedConnections);
+            assertTrue(report.presses > 0);
+            assertTrue(report.tokenLatency.count() > 0);
+            assertTrue(report.tokenLatency.percentile(50) <= report.tokenLatency.max());
+        } finally {
+            dealer.terminate();
+            game.join(10000);
+            server.terminate();
+        }
+        assertFalse(game.isAlive());
+    }
+
+    @Test
+    void constructor_RejectsANonPositiveRate() {
+        Config config = new Config(new Properties());
+        InetSocketAddress server = new InetSocketAddress("localhost", 7777);
+        assertThrows(IllegalArgumentException.class, () -> new LoadGenerator(server, 2, 1, 2, 1, 0, 0.8, 42, config));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator(server, 2, 1, 2, 1, Double.NaN, 0.8, 42, config));
+    }
+
+    @Test
+    void percentile_IsAccurateToTheBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; ++value)
+            histogram.record(value * 1000);
+
+        assertEquals(100000, histogram.count());
+        assertEquals(100000000, histogram.max());
+        assertEquals(50000000, histogram.percentile(50), 50000000 * 0.04);
+        assertEquals(99000000, histogram.percentile(99), 99000000 * 0.04);
+        assertEquals(100000000, histogram.percentile(100));
+    }
+}
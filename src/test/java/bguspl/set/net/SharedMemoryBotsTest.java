@@ -0,0 +1,103 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UserInterface;
+import bguspl.set.UtilImpl;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SharedMemoryBotsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void channel_PublishesTheTableAndPressesTheBotsKeys() throws Exception {
+        Properties properties = new Properties();
+        properties.put("HumanPlayers", "1");
+        properties.put("ComputerPlayers", "1");
+        properties.put("TableDelaySeconds", "0");
+        Config config = new Config(properties);
+        Table table = new Table(new Env(config, mock(UserInterface.class), new UtilImpl(config)));
+        Player[] players = new Player[config.players];
+        for (int i = 0; i < players.length; ++i) {
+            players[i] = mock(Player.class);
+            when(players[i].state()).thenReturn(Player.State.IDLE);
+        }
+        when(players[1].state()).thenReturn(Player.State.SELECTING);
+        table.placeCard(5, 0);
+        table.placeCard(17, 3);
+        table.placeToken(1, 3);
+
+        SharedMemoryBots bots = new SharedMemoryBots(directory.resolve("bots.shm"), table, players,
+                config.tableSize, 1);
+        assertFalse(bots.serves(0));
+        assertTrue(bots.serves(1));
+        bots.start();
+        try {
+            SharedMemoryBots.Client bot = connect(directory.resolve("bots.shm"), 1);
+            assertEquals(2, bot.players());
+            assertEquals(config.tableSize, bot.tableSize());
+
+            int[] cards = new int[bot.tableSize()];
+            boolean[][] tokens = new boolean[bot.players()][bot.tableSize()];
+            Player.State[] states = new Player.State[bot.players()];
+            long version = bot.read(cards, tokens, states);
+            assertEquals(5, cards[0]);
+            assertEquals(17, cards[3]);
+            assertEquals(-1, cards[1]);
+            assertTrue(tokens[1][3]);
+            assertFalse(tokens[0][3]);
+            assertEquals(Player.State.SELECTING, states[1]);
+
+            // a change of the table is published
+            table.placeCard(40, 7);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bot.read(cards, tokens, states) == version && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            assertEquals(40, cards[7]);
+
+            // the bot's presses are pressed for its player, in order, and more than a ring's worth gets through
+            for (int press = 0; press < 3 * SharedMemoryBots.RING_CAPACITY; ++press)
+                while (!bot.press(press % 2 == 0 ? 4 : 6))
+                    Thread.sleep(1);
+            verify(players[1], timeout(5000).times(3 * SharedMemoryBots.RING_CAPACITY / 2)).keyPressed(4);
+            verify(players[1], timeout(5000).times(3 * SharedMemoryBots.RING_CAPACITY / 2)).keyPressed(6);
+
+            // human players cannot be played by a bot
+            connect(directory.resolve("bots.shm"), 0).press(2);
+            verify(players[0], after(100).never()).keyPressed(2);
+        } finally {
+            bots.terminate();
+        }
+        assertTrue(connect(directory.resolve("bots.shm"), 1).gameOver());
+    }
+
+    private static SharedMemoryBots.Client connect(Path file, int player) throws Exception {
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                return new SharedMemoryBots.Client(file, player);
+            } catch (IOException e) {
+                if (attempt == 500) throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+}